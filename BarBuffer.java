@@ -0,0 +1,122 @@
+package historicalData;
+
+import java.util.*;
+
+/*
+growable columnar store of bars received for a request, one primitive array per field so ingestion allocates nothing once grown
+timestamps are packed yyyyMMddHHmmss longs (date only bars have 000000 as time), sortable as plain numbers
+bid and ask requests use the open column for the price, as only the open of their bars is kept
+rows can be null (no values at the timestamp, such as missing trades), tracked in a bitmap
+buffers are cleared and reused across requests and tickers
+*/
+class BarBuffer {
+
+    private static final int initialCapacity = 1024;
+
+    private long[] time = new long[initialCapacity];
+    private double[] open = new double[initialCapacity];
+    private double[] high = new double[initialCapacity];
+    private double[] low = new double[initialCapacity];
+    private double[] close = new double[initialCapacity];
+    private long[] volume = new long[initialCapacity];
+    private long[] nulls = new long[initialCapacity / 64]; //bit set for a null row
+    private int size = 0;
+
+    //add a bar at the end
+    void append(long timestamp, double open, double high, double low, double close, long volume) {
+        this.ensureCapacity(this.size + 1);
+        int row = this.size++;
+        this.time[row] = timestamp;
+        this.open[row] = open;
+        this.high[row] = high;
+        this.low[row] = low;
+        this.close[row] = close;
+        this.volume[row] = volume;
+        this.nulls[row >>> 6] &= ~(1L << row); //clear bit left by a previous use
+    }
+
+    //add a timestamp without values
+    void appendNull(long timestamp) {
+        this.append(timestamp, 0, 0, 0, 0, 0);
+        this.nulls[(this.size - 1) >>> 6] |= 1L << (this.size - 1);
+    }
+
+    //copy a row of another buffer to the end
+    void appendRow(BarBuffer source, int row) {
+        if (source.isNull(row)) {
+            this.appendNull(source.time[row]);
+        } else {
+            this.append(source.time[row], source.open[row], source.high[row], source.low[row], source.close[row], source.volume[row]);
+        }
+    }
+
+    /*
+    append chronological parts, oldest part first, into this buffer as one series without duplicates
+    parts may overlap at their start (a window spanning a holiday reaches back into the previous one), such rows are skipped in one linear pass
+    */
+    void appendDistinct(List<BarBuffer> parts) {
+        for (BarBuffer part : parts) {
+            for (int row = 0; row < part.size; row++) {
+                if (this.size == 0 || part.time[row] > this.time[this.size - 1]) {
+                    this.appendRow(part, row);
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= this.time.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, this.time.length * 2);
+        this.time = Arrays.copyOf(this.time, newCapacity);
+        this.open = Arrays.copyOf(this.open, newCapacity);
+        this.high = Arrays.copyOf(this.high, newCapacity);
+        this.low = Arrays.copyOf(this.low, newCapacity);
+        this.close = Arrays.copyOf(this.close, newCapacity);
+        this.volume = Arrays.copyOf(this.volume, newCapacity);
+        this.nulls = Arrays.copyOf(this.nulls, (newCapacity + 63) / 64);
+    }
+
+    //empty the buffer, keeping the arrays for reuse
+    void clear() {
+        this.size = 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    boolean isNull(int row) {
+        return (this.nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+    long time(int row) {
+        return this.time[row];
+    }
+
+    double open(int row) {
+        return this.open[row];
+    }
+
+    double high(int row) {
+        return this.high[row];
+    }
+
+    double low(int row) {
+        return this.low[row];
+    }
+
+    double close(int row) {
+        return this.close[row];
+    }
+
+    long volume(int row) {
+        return this.volume[row];
+    }
+
+}
@@ -0,0 +1,37 @@
+package historicalData;
+
+import java.io.Closeable;
+
+/*
+read access to a saved ticker data file by row, columns as primitives
+timestamps are packed yyyyMMddHHmmss, rows in chronological order; bid and ask exist only for intraday data
+*/
+interface BarColumns extends Closeable {
+
+    boolean isIntraday();
+
+    int rowCount();
+
+    long time(int row);
+
+    double bid(int row);
+
+    double ask(int row);
+
+    double open(int row);
+
+    double high(int row);
+
+    double low(int row);
+
+    double close(int row);
+
+    long volume(int row);
+
+    boolean isTradesNull(int row);
+
+    boolean isBidNull(int row);
+
+    boolean isAskNull(int row);
+
+}
@@ -0,0 +1,337 @@
+package historicalData;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/*
+binary columnar data file, one per ticker, named like the csv but with .bars extension ("AAPL 1min yyyymmdd-yyyymmdd.bars")
+little endian, 64 byte header followed by fixed-width columns, each 8 byte aligned:
+    header: magic "HDBR", version (short), flags (short: 1 intraday, 2 delta-encoded timestamps), row count (long), base local epoch second (long, delta files only), symbol (16 bytes ASCII), bar size (16 bytes ASCII), 8 reserved
+    timestamps: packed yyyyMMddHHmmss longs, or int seconds since the previous row (first row since the base) when delta-encoded
+    intraday only: bid, ask (double)
+    open, high, low, close (double), volume (long)
+    null bitmaps (long words, bit set for a missing value): trades, then intraday only bid and ask
+opened files are memory-mapped, column reads go straight to the mapping; delta-encoded timestamps are decoded once on open
+*/
+public final class BarFile implements BarColumns {
+
+    public static final String extension = ".bars";
+    private static final int magic = 0x52424448; //"HDBR" in little endian
+    private static final short version = 1;
+    private static final short intradayFlag = 1;
+    private static final short deltaFlag = 2;
+    private static final int headerSize = 64;
+    private static final int textFieldSize = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapping;
+    private final String symbol;
+    private final String barSize;
+    private final boolean isIntraday;
+    private final int rowCount;
+    private final long[] times; //decoded timestamps, delta files only
+    private final LongBuffer timeColumn; //packed timestamps, plain files only
+    private final DoubleBuffer bidColumn;
+    private final DoubleBuffer askColumn;
+    private final DoubleBuffer openColumn;
+    private final DoubleBuffer highColumn;
+    private final DoubleBuffer lowColumn;
+    private final DoubleBuffer closeColumn;
+    private final LongBuffer volumeColumn;
+    private final LongBuffer tradesNulls;
+    private final LongBuffer bidNulls;
+    private final LongBuffer askNulls;
+
+    private BarFile(Path filePath) throws IOException {
+
+        this.channel = FileChannel.open(filePath, StandardOpenOption.READ);
+        this.mapping = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.channel.size());
+        ByteBuffer buffer = this.mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.remaining() < headerSize || buffer.getInt(0) != magic) {
+            this.channel.close();
+            throw new IOException("Not a bar data file: " + filePath);
+        }
+        if (buffer.getShort(4) != version) {
+            this.channel.close();
+            throw new IOException("Unsupported bar data file version in " + filePath);
+        }
+        short flags = buffer.getShort(6);
+        long rows = buffer.getLong(8);
+        if (rows > Integer.MAX_VALUE) {
+            this.channel.close();
+            throw new IOException("Too many rows in " + filePath);
+        }
+        this.isIntraday = (flags & intradayFlag) != 0;
+        this.rowCount = (int) rows;
+        this.symbol = readText(buffer, 24);
+        this.barSize = readText(buffer, 40);
+
+        try { //columns past the end of a truncated file
+            int position = headerSize;
+            if ((flags & deltaFlag) != 0) { //prefix sum of the deltas back into packed timestamps
+                this.times = new long[this.rowCount];
+                this.timeColumn = null;
+                long epochSecond = buffer.getLong(16);
+                for (int row = 0; row < this.rowCount; row++) {
+                    epochSecond += buffer.getInt(position + row * 4);
+                    this.times[row] = BarTime.fromLocalEpochSecond(epochSecond);
+                }
+                position += align(this.rowCount * 4L);
+            } else {
+                this.times = null;
+                this.timeColumn = slice(buffer, position, this.rowCount * 8L).asLongBuffer();
+                position += this.rowCount * 8;
+            }
+            long columnSize = this.rowCount * 8L;
+            if (this.isIntraday) {
+                this.bidColumn = slice(buffer, position, columnSize).asDoubleBuffer();
+                position += columnSize;
+                this.askColumn = slice(buffer, position, columnSize).asDoubleBuffer();
+                position += columnSize;
+            } else {
+                this.bidColumn = null;
+                this.askColumn = null;
+            }
+            this.openColumn = slice(buffer, position, columnSize).asDoubleBuffer();
+            position += columnSize;
+            this.highColumn = slice(buffer, position, columnSize).asDoubleBuffer();
+            position += columnSize;
+            this.lowColumn = slice(buffer, position, columnSize).asDoubleBuffer();
+            position += columnSize;
+            this.closeColumn = slice(buffer, position, columnSize).asDoubleBuffer();
+            position += columnSize;
+            this.volumeColumn = slice(buffer, position, columnSize).asLongBuffer();
+            position += columnSize;
+            long bitmapSize = bitmapWords(this.rowCount) * 8L;
+            this.tradesNulls = slice(buffer, position, bitmapSize).asLongBuffer();
+            position += bitmapSize;
+            if (this.isIntraday) {
+                this.bidNulls = slice(buffer, position, bitmapSize).asLongBuffer();
+                position += bitmapSize;
+                this.askNulls = slice(buffer, position, bitmapSize).asLongBuffer();
+            } else {
+                this.bidNulls = null;
+                this.askNulls = null;
+            }
+        } catch (IndexOutOfBoundsException err) {
+            this.channel.close();
+            throw new IOException("Truncated bar data file: " + filePath, err);
+        }
+
+    }
+
+    /*
+    memory-map a bar data file for reading
+    @param Path filePath: a .bars file written by the downloader
+    */
+    public static BarFile open(Path filePath) throws IOException {
+        return new BarFile(filePath);
+    }
+
+    /*
+    write a ticker's bars as a binary columnar file
+    @param BarBuffer bids, asks: aligned row for row with trades for intraday (missing values as null rows), null for interday
+    @param BarBuffer trades: chronological, null rows for missing trades
+    @param boolean isDeltaEncoded: timestamps as int second deltas instead of packed longs
+    */
+    static void write(Path filePath, String symbol, String barSize, BarBuffer bids, BarBuffer asks, BarBuffer trades, boolean isDeltaEncoded) throws IOException {
+
+        boolean isIntraday = bids != null;
+        int rows = trades.size();
+        long columnSize = rows * 8L;
+        long timeSize = isDeltaEncoded ? align(rows * 4L) : columnSize;
+        long bitmapSize = bitmapWords(rows) * 8L;
+        long fileSize = headerSize + timeSize + columnSize * (isIntraday ? 7 : 5) + bitmapSize * (isIntraday ? 3 : 1);
+
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            ByteBuffer buffer = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(magic);
+            buffer.putShort(version);
+            buffer.putShort((short) ((isIntraday ? intradayFlag : 0) | (isDeltaEncoded ? deltaFlag : 0)));
+            buffer.putLong(rows);
+            long baseEpochSecond = (isDeltaEncoded && rows > 0) ? BarTime.toLocalEpochSecond(trades.time(0)) : 0;
+            buffer.putLong(baseEpochSecond);
+            writeText(buffer, symbol);
+            writeText(buffer, barSize);
+            buffer.position(headerSize);
+
+            if (isDeltaEncoded) {
+                long previous = baseEpochSecond;
+                for (int row = 0; row < rows; row++) {
+                    long epochSecond = BarTime.toLocalEpochSecond(trades.time(row));
+                    buffer.putInt(Math.toIntExact(epochSecond - previous));
+                    previous = epochSecond;
+                }
+                buffer.position((int) (headerSize + timeSize));
+            } else {
+                for (int row = 0; row < rows; row++) {
+                    buffer.putLong(trades.time(row));
+                }
+            }
+            if (isIntraday) {
+                for (int row = 0; row < rows; row++) {
+                    buffer.putDouble(bids.open(row));
+                }
+                for (int row = 0; row < rows; row++) {
+                    buffer.putDouble(asks.open(row));
+                }
+            }
+            for (int row = 0; row < rows; row++) {
+                buffer.putDouble(trades.open(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                buffer.putDouble(trades.high(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                buffer.putDouble(trades.low(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                buffer.putDouble(trades.close(row));
+            }
+            for (int row = 0; row < rows; row++) {
+                buffer.putLong(trades.volume(row));
+            }
+            writeNulls(buffer, trades);
+            if (isIntraday) {
+                writeNulls(buffer, bids);
+                writeNulls(buffer, asks);
+            }
+
+            mapping.force();
+
+        }
+
+    }
+
+    private static void writeNulls(ByteBuffer buffer, BarBuffer bars) {
+        int words = bitmapWords(bars.size());
+        for (int word = 0; word < words; word++) {
+            long bits = 0;
+            for (int bit = 0; bit < 64 && word * 64 + bit < bars.size(); bit++) {
+                if (bars.isNull(word * 64 + bit)) {
+                    bits |= 1L << bit;
+                }
+            }
+            buffer.putLong(bits);
+        }
+    }
+
+    private static void writeText(ByteBuffer buffer, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < textFieldSize; i++) {
+            buffer.put(i < bytes.length ? bytes[i] : 0); //zero padded, truncated at 16
+        }
+    }
+
+    private static String readText(ByteBuffer buffer, int position) {
+        int length = 0;
+        while (length < textFieldSize && buffer.get(position + length) != 0) {
+            length++;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, long size) {
+        return buffer.slice(position, (int) size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int bitmapWords(int rows) {
+        return (rows + 63) / 64;
+    }
+
+    private static long align(long size) { //round up to 8 bytes
+        return (size + 7) & ~7L;
+    }
+
+    public String symbol() {
+        return this.symbol;
+    }
+
+    public String barSize() {
+        return this.barSize;
+    }
+
+    @Override
+    public boolean isIntraday() {
+        return this.isIntraday;
+    }
+
+    @Override
+    public int rowCount() {
+        return this.rowCount;
+    }
+
+    @Override //packed yyyyMMddHHmmss timestamp
+    public long time(int row) {
+        return this.times != null ? this.times[row] : this.timeColumn.get(row);
+    }
+
+    @Override
+    public double bid(int row) {
+        return this.bidColumn.get(row);
+    }
+
+    @Override
+    public double ask(int row) {
+        return this.askColumn.get(row);
+    }
+
+    @Override
+    public double open(int row) {
+        return this.openColumn.get(row);
+    }
+
+    @Override
+    public double high(int row) {
+        return this.highColumn.get(row);
+    }
+
+    @Override
+    public double low(int row) {
+        return this.lowColumn.get(row);
+    }
+
+    @Override
+    public double close(int row) {
+        return this.closeColumn.get(row);
+    }
+
+    @Override
+    public long volume(int row) {
+        return this.volumeColumn.get(row);
+    }
+
+    @Override
+    public boolean isTradesNull(int row) { //no trades at the timestamp
+        return isSet(this.tradesNulls, row);
+    }
+
+    @Override
+    public boolean isBidNull(int row) {
+        return isSet(this.bidNulls, row);
+    }
+
+    @Override
+    public boolean isAskNull(int row) {
+        return isSet(this.askNulls, row);
+    }
+
+    private static boolean isSet(LongBuffer bitmap, int row) {
+        return (bitmap.get(row >>> 6) & (1L << row)) != 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close(); //mapping released by GC, as the JDK offers no unmap
+    }
+
+}
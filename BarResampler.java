@@ -0,0 +1,323 @@
+package historicalData;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+coarser bars derived from a finer intraday download, so one run of e.g. 1 min bars also gives 5 mins, 1 hour and so on without asking TWS again
+the source file is read in one pass, a csv one a batch of rows at a time and a binary one through its mapping, and each bar written as soon as the next one starts
+bars are clock aligned as IB's, the first of the session labelled 09:30 (so 1 hour bars are 09:30, 10:00, 11:00 ...); open is the first trade, high and low the extremes, close the last trade, volume the sum
+bid and ask are the first ones in the bar, the quote at its open as in downloaded files; a bar with quotes but no trades has null trades as downloaded rows do
+1 day bars can be derived too, but they close on the last regular-hours bar instead of the closing auction and miss the auction and off-hours volume, so plan() requests them from TWS
+*/
+public final class BarResampler {
+
+    private static final int sessionOpen = 9 * 3600 + 30 * 60; //09:30 in seconds of day
+    private static final int daySeconds = 86400;
+
+    private BarResampler() {
+    }
+
+    /*
+    split the bar sizes wanted into those requested from TWS and those derived from them, each derived from the coarsest requested size it is a multiple of
+    @param List<String> barSizes: as for requests, such as "1 min", "5 mins", "1 hour", "1 day"
+    @return requested bar size -> bar sizes derived from its files, finest first
+    */
+    public static Map<String, List<String>> plan(List<String> barSizes) throws IllegalArgumentException {
+        List<String> sizes = new ArrayList<>(new LinkedHashSet<>(barSizes));
+        sizes.sort(Comparator.comparingInt(size -> WindowPlanner.barSeconds(spaced(size))));
+        Map<String, List<String>> plan = new LinkedHashMap<>();
+        for (String size : sizes) {
+            String source = null;
+            for (String requested : plan.keySet()) {
+                if (canDerive(requested, size) && WindowPlanner.barSeconds(spaced(size)) < daySeconds) { //coarsest one last
+                    source = requested;
+                }
+            }
+            if (source != null) {
+                plan.get(source).add(size);
+            } else {
+                plan.put(size, new ArrayList<>());
+            }
+        }
+        return plan;
+    }
+
+    /*
+    @param String sourceBarSize, targetBarSize: as for requests, "1 min" or "1min"
+    @return true if the target bars can be built from the source bars: intraday source, target a whole multiple of it, up to 1 day
+    */
+    public static boolean canDerive(String sourceBarSize, String targetBarSize) throws IllegalArgumentException {
+        int sourceSeconds = WindowPlanner.barSeconds(spaced(sourceBarSize));
+        int targetSeconds = WindowPlanner.barSeconds(spaced(targetBarSize));
+        return sourceSeconds < daySeconds && targetSeconds > sourceSeconds && targetSeconds <= daySeconds && targetSeconds % sourceSeconds == 0;
+    }
+
+    /*
+    derive a coarser bar size from a data file saved by the downloader, written next to it in its format and named as a download of that size ("AAPL 5mins yyyymmdd-yyyymmdd.csv")
+    @param Path sourcePath: intraday data file, csv (with header) or binary
+    @param String targetBarSize: as for requests, see canDerive()
+    @return path of the file written, null if the source has no trades
+    */
+    public static Path resample(Path sourcePath, String targetBarSize) throws IOException, IllegalArgumentException {
+        boolean isBinary = sourcePath.getFileName().toString().endsWith(BarFile.extension);
+        return resample(sourcePath, targetBarSize, true, isBinary ? HistoricalDataDownloader.OutputFormat.BINARY : HistoricalDataDownloader.OutputFormat.CSV);
+    }
+
+    /*
+    @param boolean withHeader: csv header line, as for downloads
+    @param OutputFormat outputFormat: format of the file written
+    */
+    static Path resample(Path sourcePath, String targetBarSize, boolean withHeader, HistoricalDataDownloader.OutputFormat outputFormat) throws IOException, IllegalArgumentException {
+
+        HistoricalDataStore.DataFile source = HistoricalDataStore.parseFileName(sourcePath);
+        if (source == null) {
+            throw new IllegalArgumentException("Not a data file: " + sourcePath.getFileName());
+        }
+        if (!canDerive(source.barSize(), targetBarSize)) {
+            throw new IllegalArgumentException("Cannot derive " + targetBarSize + " bars from " + source.barSize() + " bars.");
+        }
+        String barSize = targetBarSize.replaceAll("\\s", "");
+        int barSeconds = WindowPlanner.barSeconds(spaced(targetBarSize));
+        boolean isIntraday = barSeconds < daySeconds;
+        Path partPath = sourcePath.resolveSibling(source.ticker() + " " + barSize + ".resample.part");
+
+        Bucket bucket = new Bucket();
+        try (Sink sink = outputFormat == HistoricalDataDownloader.OutputFormat.CSV ? new CsvSink(partPath, isIntraday, withHeader) : new BinarySink(partPath, source.ticker(), barSize, isIntraday, outputFormat == HistoricalDataDownloader.OutputFormat.BINARY_DELTA)) {
+            if (source.isBinary()) {
+                try (BarFile bars = BarFile.open(source.path())) {
+                    addRows(bars, barSeconds, bucket, sink);
+                }
+            } else {
+                try (CsvBarFile bars = CsvBarFile.stream(source.path())) {
+                    while (bars.nextBatch()) { //a bar may span batches, the bucket carries over
+                        addRows(bars, barSeconds, bucket, sink);
+                    }
+                }
+            }
+            bucket.writeTo(sink);
+        } catch (IOException | RuntimeException err) {
+            Files.deleteIfExists(partPath);
+            throw err;
+        }
+
+        if (bucket.firstTime < 0) { //no trades at all
+            Files.deleteIfExists(partPath);
+            return null;
+        }
+        String extension = outputFormat == HistoricalDataDownloader.OutputFormat.CSV ? ".csv" : BarFile.extension;
+        Path filePath = sourcePath.resolveSibling(source.ticker() + " " + barSize + " " + BarTime.date(bucket.firstTime) + "-" + BarTime.date(bucket.lastTime) + extension);
+        Files.move(partPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return filePath;
+
+    }
+
+    //add source rows to the bar being built, writing each bar as the next one starts
+    private static void addRows(BarColumns bars, int barSeconds, Bucket bucket, Sink sink) throws IOException {
+        for (int row = 0; row < bars.rowCount(); row++) {
+            long label = label(bars.time(row), barSeconds);
+            if (label != bucket.label) { //previous bar complete
+                bucket.writeTo(sink);
+                bucket.start(label);
+            }
+            bucket.add(bars, row);
+        }
+    }
+
+    //timestamp of the bar a row falls in: clock aligned, the session's first bar at the open, the date alone for daily bars
+    static long label(long timestamp, int barSeconds) {
+        long date = BarTime.date(timestamp) * 1000000L;
+        if (barSeconds >= daySeconds) {
+            return date;
+        }
+        int second = BarTime.secondOfDay(timestamp);
+        int start = second / barSeconds * barSeconds;
+        if (start < sessionOpen && second >= sessionOpen) { //bar spanning the open starts at it
+            start = sessionOpen;
+        }
+        return date + start / 3600 * 10000 + start / 60 % 60 * 100 + start % 60;
+    }
+
+    //"1min" as written in file names back to "1 min"
+    private static String spaced(String barSize) {
+        return barSize.trim().replaceAll("^(\\d+)\\s*(\\D+)$", "$1 $2");
+    }
+
+    //a derived bar being built from the rows falling in it
+    private static final class Bucket {
+        private long label = -1; //-1 before the first row
+        private boolean hasBid;
+        private double bid;
+        private boolean hasAsk;
+        private double ask;
+        private boolean hasTrades;
+        private double open;
+        private double high;
+        private double low;
+        private double close;
+        private long volume;
+        private long firstTime = -1; //first and last bar written with trades, for the file name
+        private long lastTime = -1;
+
+        private void start(long label) {
+            this.label = label;
+            this.hasBid = false;
+            this.hasAsk = false;
+            this.hasTrades = false;
+            this.volume = 0;
+        }
+
+        private void add(BarColumns bars, int row) {
+            if (bars.isIntraday() && !this.hasBid && !bars.isBidNull(row)) { //quote at the bar's open
+                this.hasBid = true;
+                this.bid = bars.bid(row);
+            }
+            if (bars.isIntraday() && !this.hasAsk && !bars.isAskNull(row)) {
+                this.hasAsk = true;
+                this.ask = bars.ask(row);
+            }
+            if (bars.isTradesNull(row)) {
+                return;
+            }
+            if (!this.hasTrades) {
+                this.hasTrades = true;
+                this.open = bars.open(row);
+                this.high = bars.high(row);
+                this.low = bars.low(row);
+            } else {
+                this.high = Math.max(this.high, bars.high(row));
+                this.low = Math.min(this.low, bars.low(row));
+            }
+            this.close = bars.close(row);
+            this.volume += bars.volume(row);
+        }
+
+        private void writeTo(Sink sink) throws IOException {
+            if (this.label < 0 || (!this.hasTrades && !sink.isIntraday())) { //nothing yet, or a day without trades
+                return;
+            }
+            sink.write(this);
+            if (this.hasTrades) {
+                if (this.firstTime < 0) {
+                    this.firstTime = this.label;
+                }
+                this.lastTime = this.label;
+            }
+        }
+    }
+
+    //where derived bars go, csv rows as saveData() writes them or a binary file
+    private interface Sink extends Closeable {
+        boolean isIntraday();
+
+        void write(Bucket bucket) throws IOException;
+    }
+
+    private static final class CsvSink implements Sink {
+        private final CsvBarWriter writer;
+        private final boolean isIntraday;
+
+        private CsvSink(Path filePath, boolean isIntraday, boolean withHeader) throws IOException {
+            this.writer = new CsvBarWriter(filePath);
+            this.isIntraday = isIntraday;
+            if (withHeader) {
+                this.writer.writeLine(isIntraday ? "datetime, bid, ask, open, high, low, close, volume" : "datetime, open, high, low, close, volume");
+            }
+        }
+
+        @Override
+        public boolean isIntraday() {
+            return this.isIntraday;
+        }
+
+        @Override
+        public void write(Bucket bucket) throws IOException {
+            this.writer.timestamp(bucket.label, this.isIntraday);
+            if (this.isIntraday) {
+                if (bucket.hasBid) {
+                    this.writer.price(bucket.bid);
+                } else {
+                    this.writer.missing();
+                }
+                if (bucket.hasAsk) {
+                    this.writer.price(bucket.ask);
+                } else {
+                    this.writer.missing();
+                }
+            }
+            if (bucket.hasTrades) {
+                this.writer.price(bucket.open);
+                this.writer.price(bucket.high);
+                this.writer.price(bucket.low);
+                this.writer.price(bucket.close);
+                this.writer.volume(bucket.volume);
+            } else {
+                for (int i = 0; i < 5; i++) {
+                    this.writer.missing();
+                }
+            }
+            this.writer.endRow();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.writer.close();
+        }
+    }
+
+    //binary files need every row before writing, held as the derived bars only
+    private static final class BinarySink implements Sink {
+        private final Path filePath;
+        private final String symbol;
+        private final String barSize;
+        private final boolean isIntraday;
+        private final boolean isDeltaEncoded;
+        private final BarBuffer bids = new BarBuffer();
+        private final BarBuffer asks = new BarBuffer();
+        private final BarBuffer trades = new BarBuffer();
+
+        private BinarySink(Path filePath, String symbol, String barSize, boolean isIntraday, boolean isDeltaEncoded) {
+            this.filePath = filePath;
+            this.symbol = symbol;
+            this.barSize = barSize;
+            this.isIntraday = isIntraday;
+            this.isDeltaEncoded = isDeltaEncoded;
+        }
+
+        @Override
+        public boolean isIntraday() {
+            return this.isIntraday;
+        }
+
+        @Override
+        public void write(Bucket bucket) {
+            if (this.isIntraday) {
+                if (bucket.hasBid) {
+                    this.bids.append(bucket.label, bucket.bid, 0, 0, 0, 0);
+                } else {
+                    this.bids.appendNull(bucket.label);
+                }
+                if (bucket.hasAsk) {
+                    this.asks.append(bucket.label, bucket.ask, 0, 0, 0, 0);
+                } else {
+                    this.asks.appendNull(bucket.label);
+                }
+            }
+            if (bucket.hasTrades) {
+                this.trades.append(bucket.label, bucket.open, bucket.high, bucket.low, bucket.close, bucket.volume);
+            } else {
+                this.trades.appendNull(bucket.label);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.trades.isEmpty()) { //no file without trades
+                return;
+            }
+            BarFile.write(this.filePath, this.symbol, this.barSize, this.isIntraday ? this.bids : null, this.isIntraday ? this.asks : null, this.trades, this.isDeltaEncoded);
+        }
+    }
+
+}
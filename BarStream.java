@@ -0,0 +1,162 @@
+package historicalData;
+
+import java.io.*;
+import java.nio.file.*;
+
+/*
+csv output of a ticker written while its requests are still arriving, instead of after all of them are done
+chunks (sub-windows) are fed oldest first; within a chunk the legs (bid, ask, trades for intraday, trades only for interday) are merged by timestamp,
+and a row is written once every leg has a later bar or has ended, so only the rows not yet passed by all legs are held back
+rows not after the last one written are dropped, as where a chunk overlaps the previous one
+*/
+final class BarStream implements Closeable {
+
+    private final CsvBarWriter writer;
+    private final Path filePath;
+    private final boolean isIntraday;
+    private int[] cursors = new int[3]; //next row of each leg in the current chunk
+    private long firstTime = -1; //first timestamp written, -1 if none
+    private long lastTime = -1; //last timestamp written
+    private boolean hasTrades = false; //a row with trades written
+
+    /*
+    @param Path filePath: file written to, renamed by the caller once complete
+    @param String header: first line, null for none
+    */
+    BarStream(Path filePath, boolean isIntraday, String header) throws IOException {
+        this.filePath = filePath;
+        this.isIntraday = isIntraday;
+        this.writer = new CsvBarWriter(filePath);
+        if (header != null) {
+            this.writer.writeLine(header);
+        }
+    }
+
+    //rows of an existing data file up to the given row, written ahead of the streamed ones
+    void writeExisting(BarColumns existing, int endRow) throws IOException {
+        for (int row = 0; row < endRow; row++) {
+            long timestamp = existing.time(row);
+            this.writer.timestamp(timestamp, this.isIntraday);
+            if (this.isIntraday) {
+                if (existing.isBidNull(row)) {
+                    this.writer.missing();
+                } else {
+                    this.writer.price(existing.bid(row));
+                }
+                if (existing.isAskNull(row)) {
+                    this.writer.missing();
+                } else {
+                    this.writer.price(existing.ask(row));
+                }
+            }
+            if (existing.isTradesNull(row)) {
+                for (int i = 0; i < 5; i++) {
+                    this.writer.missing();
+                }
+            } else {
+                this.writer.price(existing.open(row));
+                this.writer.price(existing.high(row));
+                this.writer.price(existing.low(row));
+                this.writer.price(existing.close(row));
+                this.writer.volume(existing.volume(row));
+                this.hasTrades = true;
+            }
+            this.writer.endRow();
+            this.recordWritten(timestamp);
+        }
+    }
+
+    /*
+    write the rows of the current chunk every leg has passed
+    @param BarBuffer bids, asks: null for interday; any leg null if its request has not started
+    @param boolean isEnded: true once every leg's request is done, the remaining rows are then all written
+    @return true if the chunk is fully written, the next chunk can be fed
+    */
+    boolean drain(BarBuffer bids, BarBuffer asks, BarBuffer trades, boolean isBidsEnded, boolean isAsksEnded, boolean isTradesEnded) throws IOException {
+
+        while (true) {
+
+            long key = Long.MAX_VALUE; //smallest timestamp at the heads of the legs
+            key = Math.min(key, head(trades, this.cursors[2]));
+            if (this.isIntraday) {
+                key = Math.min(key, head(bids, this.cursors[0]));
+                key = Math.min(key, head(asks, this.cursors[1]));
+            }
+            if (key == Long.MAX_VALUE) { //all legs consumed so far
+                return isTradesEnded && (!this.isIntraday || (isBidsEnded && isAsksEnded));
+            }
+            if ((!isTradesEnded && !hasRow(trades, this.cursors[2])) || (this.isIntraday && ((!isBidsEnded && !hasRow(bids, this.cursors[0])) || (!isAsksEnded && !hasRow(asks, this.cursors[1]))))) {
+                return false; //a leg may still send a bar at or before the key
+            }
+
+            int tradeRow = take(trades, this.cursors, 2, key);
+            int bidRow = this.isIntraday ? take(bids, this.cursors, 0, key) : -1;
+            int askRow = this.isIntraday ? take(asks, this.cursors, 1, key) : -1;
+            if (key <= this.lastTime) { //overlap with the previous chunk
+                continue;
+            }
+            this.writer.timestamp(key, this.isIntraday);
+            if (this.isIntraday) {
+                this.writer.quote(bids, bidRow);
+                this.writer.quote(asks, askRow);
+            }
+            this.writer.trades(trades, tradeRow);
+            this.writer.endRow();
+            this.hasTrades |= tradeRow >= 0 && !trades.isNull(tradeRow);
+            this.recordWritten(key);
+
+        }
+
+    }
+
+    //start merging the next chunk's legs from their first rows
+    void nextChunk() {
+        this.cursors = new int[3];
+    }
+
+    private static boolean hasRow(BarBuffer leg, int cursor) {
+        return leg != null && cursor < leg.size();
+    }
+
+    private static long head(BarBuffer leg, int cursor) {
+        return hasRow(leg, cursor) ? leg.time(cursor) : Long.MAX_VALUE;
+    }
+
+    //row of the leg at the key, advancing its cursor; -1 if the leg has no bar at the key
+    private static int take(BarBuffer leg, int[] cursors, int index, long key) {
+        if (hasRow(leg, cursors[index]) && leg.time(cursors[index]) == key) {
+            return cursors[index]++;
+        }
+        return -1;
+    }
+
+    private void recordWritten(long timestamp) {
+        if (this.firstTime < 0) {
+            this.firstTime = timestamp;
+        }
+        this.lastTime = timestamp;
+    }
+
+    long firstTime() {
+        return this.firstTime;
+    }
+
+    long lastTime() {
+        return this.lastTime;
+    }
+
+    //true if any written row has trades, as a ticker without trades is not saved
+    boolean hasTrades() {
+        return this.hasTrades;
+    }
+
+    Path filePath() {
+        return this.filePath;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.close();
+    }
+
+}
@@ -0,0 +1,125 @@
+package historicalData;
+
+/*
+allocation-free parsing and formatting of IB bar timestamps
+IB sends intraday bars as "yyyyMMdd HH:mm:ss VV" (VV the timezone, e.g. America/New_York) and interday bars as "yyyyMMdd"
+timestamps are kept as packed yyyyMMddHHmmss longs, time part 000000 for interday; exchange local time, the timezone suffix is dropped
+packed values sort chronologically as plain numbers and format back without any DateTimeFormatter
+*/
+final class BarTime {
+
+    private BarTime() {
+    }
+
+    /*
+    @param CharSequence text: yyyyMMdd or yyyyMMdd HH:mm:ss with optional timezone suffix, leading spaces allowed
+    @return packed yyyyMMddHHmmss
+    */
+    static long parse(CharSequence text) throws IllegalArgumentException {
+        int start = 0;
+        while (start < text.length() && text.charAt(start) == ' ') {
+            start++;
+        }
+        if (text.length() - start < 8) {
+            throw new IllegalArgumentException("Invalid bar timestamp " + text);
+        }
+        long date = digits(text, start, 8);
+        if (text.length() - start < 17 || text.charAt(start + 8) != ' ') { //date only
+            return date * 1000000;
+        }
+        if (text.charAt(start + 11) != ':' || text.charAt(start + 14) != ':') {
+            throw new IllegalArgumentException("Invalid bar timestamp " + text);
+        }
+        long time = digits(text, start + 9, 2) * 10000 + digits(text, start + 12, 2) * 100 + digits(text, start + 15, 2);
+        return date * 1000000 + time;
+    }
+
+    //fixed-width decimal number at the position
+    private static long digits(CharSequence text, int position, int count) throws IllegalArgumentException {
+        long value = 0;
+        for (int i = position; i < position + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Invalid bar timestamp " + text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /*
+    write yyyyMMdd HH:mm:ss (intraday) or yyyyMMdd (interday) into the buffer
+    @return position after the last char written
+    */
+    static int format(long timestamp, boolean isIntraday, char[] buffer, int position) {
+        long date = timestamp / 1000000;
+        for (int i = position + 7; i >= position; i--, date /= 10) {
+            buffer[i] = (char) ('0' + date % 10);
+        }
+        if (!isIntraday) {
+            return position + 8;
+        }
+        int time = (int) (timestamp % 1000000);
+        buffer[position + 8] = ' ';
+        buffer[position + 9] = (char) ('0' + time / 100000);
+        buffer[position + 10] = (char) ('0' + time / 10000 % 10);
+        buffer[position + 11] = ':';
+        buffer[position + 12] = (char) ('0' + time / 1000 % 10);
+        buffer[position + 13] = (char) ('0' + time / 100 % 10);
+        buffer[position + 14] = ':';
+        buffer[position + 15] = (char) ('0' + time / 10 % 10);
+        buffer[position + 16] = (char) ('0' + time % 10);
+        return position + 17;
+    }
+
+    //String form, for file names and messages rather than per-row output
+    static String format(long timestamp, boolean isIntraday) {
+        char[] buffer = new char[17];
+        return new String(buffer, 0, format(timestamp, isIntraday, buffer, 0));
+    }
+
+    static int date(long timestamp) { //yyyyMMdd part
+        return (int) (timestamp / 1000000);
+    }
+
+    static int secondOfDay(long timestamp) { //seconds since midnight of the time part
+        int time = (int) (timestamp % 1000000);
+        return time / 10000 * 3600 + time / 100 % 100 * 60 + time % 100;
+    }
+
+    /*
+    seconds since 1970-01-01 00:00:00 of the same wall-clock time, no timezone applied; for arithmetic such as deltas and bar boundaries
+    civil date to day count after H. Hinnant, http://howardhinnant.github.io/date_algorithms.html
+    */
+    static long toLocalEpochSecond(long timestamp) {
+        int date = date(timestamp);
+        int year = date / 10000;
+        int month = date / 100 % 100;
+        int day = date % 100;
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long epochDay = era * 146097 + dayOfEra - 719468;
+        return epochDay * 86400 + secondOfDay(timestamp);
+    }
+
+    //inverse of toLocalEpochSecond
+    static long fromLocalEpochSecond(long epochSecond) {
+        long epochDay = Math.floorDiv(epochSecond, 86400);
+        int second = Math.floorMod(epochSecond, 86400);
+        long shifted = epochDay + 719468;
+        long era = Math.floorDiv(shifted, 146097);
+        long dayOfEra = shifted - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        long month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        long date = year * 10000 + month * 100 + day;
+        return date * 1000000 + (second / 3600) * 10000 + (second / 60 % 60) * 100 + second % 60;
+    }
+
+}
@@ -3,6 +3,7 @@ package historicalData;
 import java.nio.file.*;
 import java.nio.*;
 import java.util.*;
+import java.util.stream.Collectors;
 import java.io.*;
 import java.time.Instant;
 import java.time.Duration;
@@ -12,9 +13,13 @@ import java.time.format.DateTimeFormatter;
 /*
 script to send download requests for multiple tickers read from a tickerlist file
 the file should be one ticker per line
+progress is journaled in the save directory; a run stopped by an error resumes by itself, or when started again with the same inputs
 */
 public class BatchDownloadScript {
 
+    private static final int maxAttempts = 5; //runs started before giving up, each resuming where the last stopped
+    private static final int retryDelayMinutes = 1; //pause before resuming, gives TWS time to recover
+
     public static void main(String[] args) throws IOException, IllegalArgumentException {
         //local variables
         HistoricalDataDownloader downloader;
@@ -26,7 +31,13 @@ public class BatchDownloadScript {
         int month;
         int day;
         String period; //"<digit> DurationString" where DurationString is S = seconds, D = day, W = week, M = month, Y = year
-        String dataSize; //"<digit> SizeString", valid strings are <1/5/10/15/30> secs, <1/2/3/5/10/15/20/30> mins, <1/2/3/4/8> hours, <1> day/week/month; note 1 min and 1 hour (no s)
+        boolean isIncremental; //top up existing files rather than download the whole period
+        boolean isStreaming; //rows written as they arrive rather than once a ticker is complete
+        String cacheDir; //directory of the response cache, empty for none
+        long cacheSizeBytes = 0; //responses kept in it before the least recently used are evicted
+        String headTimestampsDir; //directory of the first bar per symbol, empty to request whole periods without probing
+        String contractsDir; //directory of resolved conIds, empty to request by bare symbol
+        List<String> dataSizes; //"<digit> SizeString", valid strings are <1/5/10/15/30> secs, <1/2/3/5/10/15/20/30> mins, <1/2/3/4/8> hours, <1> day/week/month; note 1 min and 1 hour (no s)
         //getting cmd inputs
         Scanner scanner = new Scanner(System.in);
         System.out.println("Enter path to ticker list file: ");
@@ -42,8 +53,22 @@ public class BatchDownloadScript {
         day = Integer.parseInt( scanner.nextLine().trim() );
         System.out.println("Enter request period (digit + D=day, W=week, M=month, Y=year): ");
         period = scanner.nextLine().trim().toUpperCase();
-        System.out.println("Enter request bar size (digit + mins/hours/day/week/month): ");
-        dataSize = scanner.nextLine().trim().toLowerCase();
+        System.out.println("Enter request bar size(s), comma separated (digit + mins/hours/day/week/month): ");
+        dataSizes = Arrays.stream(scanner.nextLine().trim().toLowerCase().split(",")).map(String::trim).filter(size -> !size.isEmpty()).collect(Collectors.toList());
+        System.out.println("Only fetch data newer than files already in the directory (y/n): ");
+        isIncremental = scanner.nextLine().trim().toLowerCase().startsWith("y");
+        System.out.println("Write rows to disk as they arrive, bounding memory for long intraday periods (y/n): ");
+        isStreaming = scanner.nextLine().trim().toLowerCase().startsWith("y");
+        System.out.println("Enter directory path to cache responses in, so a repeated request is not sent again (blank for no cache): ");
+        cacheDir = scanner.nextLine().trim();
+        if (!cacheDir.isEmpty()) {
+            System.out.println("Enter cache size limit in MB: ");
+            cacheSizeBytes = Long.parseLong( scanner.nextLine().trim() ) * 1024 * 1024;
+        }
+        System.out.println("Enter directory path to keep first bar times in, so nothing before a ticker's first bar is requested (blank to not probe them): ");
+        headTimestampsDir = scanner.nextLine().trim();
+        System.out.println("Enter directory path to keep resolved contracts in, so tickers are requested by conId (blank to request by symbol): ");
+        contractsDir = scanner.nextLine().trim();
         scanner.close();
         //checking paths
         if (!Files.exists(tickersPath)) {
@@ -64,18 +89,52 @@ public class BatchDownloadScript {
         if (!Files.isWritable(dirPath)) {
             throw new IllegalArgumentException("Directory path not writable.");
         }
+        if (!cacheDir.isEmpty() && cacheSizeBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive.");
+        }
 
         tickers = Files.readAllLines(tickersPath);  //open tickers file, read all lines at once and populate into List
 
-        downloader = HistoricalDataDownloader.getDownloader(tickers, year, month, day, period, dataSize, dir, false);
-        
         Instant startInstant = Instant.now(); //request start time clock
         String startTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss")); //record starting time
-        try {
-            downloader.start();
-        } catch (Exception err) {
-            System.out.println(err.getMessage());
-            System.exit(0);
+        Map<String, List<String>> plan = BarResampler.plan(dataSizes); //bar sizes derivable from a finer one are not requested
+        for (Map.Entry<String, List<String>> planned : plan.entrySet()) {
+            String dataSize = planned.getKey();
+            if (!planned.getValue().isEmpty()) {
+                System.out.println("Requesting " + dataSize + " bars, deriving " + String.join(", ", planned.getValue()) + " from them.");
+            }
+            for (int attempt = 1; ; attempt++) { //a failed run is retried, the journal in the directory keeps finished tickers from being requested again
+                try {
+                    downloader = HistoricalDataDownloader.getDownloader(tickers, year, month, day, period, dataSize, dir, false);
+                    downloader.setDerivedBarSizes(planned.getValue());
+                    downloader.setStreaming(isStreaming);
+                    downloader.setIncremental(isIncremental);
+                    downloader.enableJournal();
+                    if (!cacheDir.isEmpty()) {
+                        downloader.enableCache(cacheDir, cacheSizeBytes);
+                    }
+                    if (!contractsDir.isEmpty()) { //requests by conId, resolved once a week
+                        downloader.enableContractCache(contractsDir);
+                    }
+                    if (!headTimestampsDir.isEmpty()) { //a probe per ticker not yet known, taking a request slot
+                        downloader.enableHeadTimestamps(headTimestampsDir);
+                    }
+                    downloader.start();
+                    break;
+                } catch (Exception err) {
+                    System.out.println(err.getMessage());
+                    if (attempt == maxAttempts) {
+                        System.out.println("Giving up after " + maxAttempts + " attempts, run again to resume from " + RunJournal.fileName(dataSize, HistoricalDataDownloader.OutputFormat.CSV.name()) + ".");
+                        System.exit(0);
+                    }
+                    System.out.println("Attempt " + attempt + " failed, resuming in " + retryDelayMinutes + " minute(s).");
+                    try {
+                        Thread.sleep(retryDelayMinutes * 60 * 1000L);
+                    } catch (InterruptedException interrupted) {
+                        System.exit(0);
+                    }
+                }
+            }
         }
         Instant endInstant = Instant.now(); //request end time clock
         System.out.println("All requests finished.");
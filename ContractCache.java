@@ -0,0 +1,106 @@
+package historicalData;
+
+import com.ib.client.Contract;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+contract ids of symbols as resolved by reqContractDetails, kept on disk so requests go out by conId instead of TWS resolving the symbol on every request of every run
+entries are "<symbol> <conId> <primary exchange> <first seen> <last seen>", tab separated, times in epoch seconds, appended as resolved; a later line for the same symbol and conId wins
+a symbol keeps every conId it resolved to, oldest first, so the contract of a symbol before a corporate action (new conId under the same symbol) stays known
+the latest conId of a symbol is used while resolved within the last 7 days, then resolved again; a line torn by a crash is ignored
+shared by the sessions of a pool, so synchronized
+*/
+final class ContractCache {
+
+    static final String fileName = "contracts.log";
+    private static final long maxAgeSeconds = 7L * 86400; //resolved again after 7 days
+
+    //a conId a symbol resolved to, and the span it was seen resolving to it
+    record Resolution(String symbol, int conId, String primaryExchange, long firstSeen, long lastSeen) {
+    }
+
+    private final Path filePath;
+    private final Map<String, List<Resolution>> resolutions = new HashMap<>(); //symbol -> conIds, oldest first
+
+    /*
+    @param Path dirPath: directory the file lives in, created if missing; may be shared by runs and downloaders
+    */
+    ContractCache(Path dirPath) throws IOException {
+        Files.createDirectories(dirPath);
+        this.filePath = dirPath.resolve(fileName);
+        if (Files.exists(this.filePath)) {
+            this.read();
+        }
+    }
+
+    private void read() throws IOException {
+        String content = Files.readString(this.filePath, StandardCharsets.UTF_8);
+        for (String line : content.substring(0, content.lastIndexOf('\n') + 1).split("\n")) { //complete lines only
+            String[] fields = line.split("\t");
+            if (fields.length != 5) {
+                continue;
+            }
+            try {
+                this.record(new Resolution(fields[0], Integer.parseInt(fields[1]), fields[2], Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+            } catch (NumberFormatException err) {
+                ; //not an entry, skipped
+            }
+        }
+    }
+
+    //a conId seen again replaces its entry and moves to the end as the latest
+    private void record(Resolution resolution) {
+        List<Resolution> history = this.resolutions.computeIfAbsent(resolution.symbol(), symbol -> new ArrayList<>());
+        history.removeIf(seen -> seen.conId() == resolution.conId());
+        history.add(resolution);
+    }
+
+    /*
+    @param long now: current time in epoch seconds
+    @return the contract to request the symbol by, null if never resolved or last resolved more than 7 days ago
+    */
+    synchronized Contract get(String symbol, long now) {
+        List<Resolution> history = this.resolutions.get(symbol);
+        if (history == null || now - history.get(history.size() - 1).lastSeen() > maxAgeSeconds) {
+            return null;
+        }
+        return contract(history.get(history.size() - 1));
+    }
+
+    //record what the symbol resolved to now, a new conId is added to its history
+    synchronized void put(String symbol, int conId, String primaryExchange, long now) throws IOException {
+        String exchange = primaryExchange == null || primaryExchange.isEmpty() ? "-" : primaryExchange;
+        List<Resolution> history = this.resolutions.getOrDefault(symbol, List.of());
+        long firstSeen = history.stream().filter(seen -> seen.conId() == conId).mapToLong(Resolution::firstSeen).findFirst().orElse(now);
+        Resolution resolution = new Resolution(symbol, conId, exchange, firstSeen, now);
+        this.record(resolution);
+        try (FileChannel channel = FileChannel.open(this.filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap((symbol + "\t" + conId + "\t" + exchange + "\t" + firstSeen + "\t" + now + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    //every conId the symbol resolved to, oldest first; earlier ones are contracts of the symbol before a corporate action
+    synchronized List<Resolution> history(String symbol) {
+        return List.copyOf(this.resolutions.getOrDefault(symbol, List.of()));
+    }
+
+    //US stock contract by conId, routed SMART with its primary exchange
+    static Contract contract(Resolution resolution) {
+        Contract contract = new Contract();
+        contract.conId(resolution.conId());
+        contract.symbol(resolution.symbol());
+        contract.secType("STK");
+        contract.currency("USD");
+        contract.exchange("SMART");
+        if (!resolution.primaryExchange().equals("-")) {
+            contract.primaryExch(resolution.primaryExchange());
+        }
+        return contract;
+    }
+
+}
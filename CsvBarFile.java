@@ -0,0 +1,307 @@
+package historicalData;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/*
+csv data file as written by saveData(), memory-mapped and parsed byte by byte into columnar buffers, no String per row or field
+rows are "datetime, bid, ask, open, high, low, close, volume" for intraday or "datetime, open, high, low, close, volume" for interday, header optional
+opened whole, or streamed a batch of rows at a time into the same buffers for one pass over a file without holding all of it (see nextBatch)
+*/
+final class CsvBarFile implements BarColumns {
+
+    private static final double[] powersOfTen = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final long maxExactMantissa = 1L << 53; //integers up to this are exact doubles
+    private static final int batchRows = 4096; //rows parsed per batch when streamed
+
+    private final Path filePath;
+    private final boolean isIntraday;
+    private final BarBuffer bids = new BarBuffer(); //aligned row for row with trades, intraday only
+    private final BarBuffer asks = new BarBuffer();
+    private final BarBuffer trades = new BarBuffer();
+    private MappedByteBuffer bytes; //mapping, only while rows are left to parse
+    private int position;
+    private int limit;
+
+    private CsvBarFile(Path filePath, boolean isStreamed) throws IOException {
+
+        this.filePath = filePath;
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + filePath);
+            }
+            this.bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        this.limit = this.bytes.limit();
+        this.position = 0;
+
+        if (this.limit > 0 && this.bytes.get(0) == 'd') { //header line "datetime, ..."
+            this.skipLine();
+        }
+        int lineEnd = this.lineEnd();
+        this.isIntraday = lineEnd - this.position > 8 && this.bytes.get(this.position + 8) == ' '; //datetime has a time part, interday dates are followed by the separator
+
+        if (!isStreamed) {
+            this.parseRows(Integer.MAX_VALUE);
+        }
+
+    }
+
+    static CsvBarFile open(Path filePath) throws IOException {
+        return new CsvBarFile(filePath, false);
+    }
+
+    //no rows until the first nextBatch()
+    static CsvBarFile stream(Path filePath) throws IOException {
+        return new CsvBarFile(filePath, true);
+    }
+
+    /*
+    replace the rows held by the next batch of the file, row indexes start at 0 again
+    @return false once all rows were parsed, no rows held then
+    */
+    boolean nextBatch() throws IOException {
+        this.bids.clear();
+        this.asks.clear();
+        this.trades.clear();
+        if (this.bytes != null) {
+            this.parseRows(batchRows);
+        }
+        return !this.trades.isEmpty();
+    }
+
+    //parse up to maxRows rows, the mapping dropped once the end is reached
+    private void parseRows(int maxRows) throws IOException {
+        try {
+            while (this.position < this.limit && this.trades.size() < maxRows) {
+                if (this.bytes.get(this.position) == '\n' || this.bytes.get(this.position) == '\r') { //blank line
+                    this.position++;
+                    continue;
+                }
+                this.parseRow();
+            }
+        } catch (IndexOutOfBoundsException | NumberFormatException err) {
+            throw new IOException("Malformed data file " + this.filePath + " near byte " + this.position);
+        }
+        if (this.position >= this.limit) {
+            this.bytes = null;
+        }
+    }
+
+    private void parseRow() {
+        long timestamp = this.parseTimestamp();
+        if (this.isIntraday) {
+            this.parsePrice(this.bids, timestamp);
+            this.parsePrice(this.asks, timestamp);
+        }
+        this.skipSeparator();
+        if (this.isNullField()) { //no trades, the rest of the row is null
+            this.trades.appendNull(timestamp);
+            this.skipLine();
+            return;
+        }
+        double open = this.parseDouble();
+        this.skipSeparator();
+        double high = this.parseDouble();
+        this.skipSeparator();
+        double low = this.parseDouble();
+        this.skipSeparator();
+        double close = this.parseDouble();
+        this.skipSeparator();
+        long volume = this.parseLong();
+        this.trades.append(timestamp, open, high, low, close, volume);
+        this.skipLine();
+    }
+
+    private void parsePrice(BarBuffer prices, long timestamp) {
+        this.skipSeparator();
+        if (this.isNullField()) {
+            this.position += 4;
+            prices.appendNull(timestamp);
+        } else {
+            prices.append(timestamp, this.parseDouble(), 0, 0, 0, 0);
+        }
+    }
+
+    private long parseTimestamp() {
+        long date = this.digits(8);
+        if (!this.isIntraday) {
+            return date * 1000000;
+        }
+        this.position++; //space
+        long hour = this.digits(2);
+        this.position++; //colon
+        long minute = this.digits(2);
+        this.position++;
+        long second = this.digits(2);
+        return date * 1000000 + hour * 10000 + minute * 100 + second;
+    }
+
+    private long digits(int count) {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            byte c = this.bytes.get(this.position++);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException();
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /*
+    decimal text to double; plain decimals with up to 15 significant digits are exact as mantissa / 10^decimals (correctly rounded division)
+    anything else, such as exponent notation from Double.toString, goes through Double.parseDouble
+    */
+    private double parseDouble() {
+        int start = this.position;
+        boolean isNegative = this.bytes.get(this.position) == '-';
+        if (isNegative) {
+            this.position++;
+        }
+        long mantissa = 0;
+        int decimals = 0;
+        boolean isFraction = false;
+        boolean isExact = true;
+        while (this.position < this.limit) {
+            byte c = this.bytes.get(this.position);
+            if (c >= '0' && c <= '9') {
+                if (mantissa < maxExactMantissa / 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (isFraction) {
+                        decimals++;
+                    }
+                } else {
+                    isExact = false;
+                }
+            } else if (c == '.' && !isFraction) {
+                isFraction = true;
+            } else if (c == 'E' || c == 'e' || c == '-' || c == '+') {
+                isExact = false;
+            } else {
+                break;
+            }
+            this.position++;
+        }
+        if (isExact && decimals < powersOfTen.length) {
+            double value = mantissa / powersOfTen[decimals];
+            return isNegative ? -value : value;
+        }
+        byte[] text = new byte[this.position - start];
+        this.bytes.get(start, text);
+        return Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+    }
+
+    private long parseLong() {
+        boolean isNegative = this.bytes.get(this.position) == '-';
+        if (isNegative) {
+            this.position++;
+        }
+        long value = 0;
+        while (this.position < this.limit) {
+            byte c = this.bytes.get(this.position);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            this.position++;
+        }
+        return isNegative ? -value : value;
+    }
+
+    private boolean isNullField() {
+        return this.bytes.get(this.position) == 'n';
+    }
+
+    private void skipSeparator() { //", "
+        while (this.bytes.get(this.position) == ',' || this.bytes.get(this.position) == ' ') {
+            this.position++;
+        }
+    }
+
+    private int lineEnd() {
+        int end = this.position;
+        while (end < this.limit && this.bytes.get(end) != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    private void skipLine() {
+        this.position = Math.min(this.lineEnd() + 1, this.limit);
+    }
+
+    @Override
+    public boolean isIntraday() {
+        return this.isIntraday;
+    }
+
+    @Override
+    public int rowCount() {
+        return this.trades.size();
+    }
+
+    @Override
+    public long time(int row) {
+        return this.trades.time(row);
+    }
+
+    @Override
+    public double bid(int row) {
+        return this.bids.open(row);
+    }
+
+    @Override
+    public double ask(int row) {
+        return this.asks.open(row);
+    }
+
+    @Override
+    public double open(int row) {
+        return this.trades.open(row);
+    }
+
+    @Override
+    public double high(int row) {
+        return this.trades.high(row);
+    }
+
+    @Override
+    public double low(int row) {
+        return this.trades.low(row);
+    }
+
+    @Override
+    public double close(int row) {
+        return this.trades.close(row);
+    }
+
+    @Override
+    public long volume(int row) {
+        return this.trades.volume(row);
+    }
+
+    @Override
+    public boolean isTradesNull(int row) {
+        return this.trades.isNull(row);
+    }
+
+    @Override
+    public boolean isBidNull(int row) {
+        return this.bids.isNull(row);
+    }
+
+    @Override
+    public boolean isAskNull(int row) {
+        return this.asks.isNull(row);
+    }
+
+    @Override
+    public void close() {
+        this.bytes = null;
+    }
+
+}
@@ -0,0 +1,190 @@
+package historicalData;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/*
+csv row encoder writing bar fields as ASCII straight into a reusable byte buffer, flushed to a FileChannel in large writes
+output is byte-identical to the previous String.valueOf(Double)/String.join path: fields separated by ", ", rows ended by the system line separator, "null" for missing values
+doubles with up to 4 decimals in [0.001, 10^7), i.e. all regular prices, take a fast exact path; anything else falls back to Double.toString
+*/
+class CsvBarWriter implements Closeable {
+
+    private static final int bufferSize = 1 << 18; //256KB per write
+    private static final byte[] separator = ", ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] nullText = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final double[] powersOfTen = {1, 10, 100, 1000, 10000};
+    private static final int maxFastDecimals = 4;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+    private final byte[] bytes = this.buffer.array(); //written directly, position tracked here
+    private final char[] timestampChars = new char[17];
+    private int position = 0;
+    private boolean isRowStart = true; //no separator before the first field of a row
+
+    CsvBarWriter(Path filePath) throws IOException {
+        this.channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    //header or other literal line
+    void writeLine(String line) throws IOException {
+        this.ensureRoom(line.length() + lineSeparator.length);
+        for (int i = 0; i < line.length(); i++) {
+            this.bytes[this.position++] = (byte) line.charAt(i);
+        }
+        this.endRow();
+    }
+
+    void timestamp(long timestamp, boolean isIntraday) throws IOException {
+        this.fieldStart(17);
+        int length = BarTime.format(timestamp, isIntraday, this.timestampChars, 0);
+        for (int i = 0; i < length; i++) {
+            this.bytes[this.position++] = (byte) this.timestampChars[i];
+        }
+    }
+
+    void price(double value) throws IOException {
+        this.fieldStart(32);
+        if (!this.appendShortDecimal(value)) {
+            String text = Double.toString(value); //rare, such as sub-tenth-cent or huge values
+            for (int i = 0; i < text.length(); i++) {
+                this.bytes[this.position++] = (byte) text.charAt(i);
+            }
+        }
+    }
+
+    void volume(long value) throws IOException {
+        this.fieldStart(20);
+        this.appendLong(value);
+    }
+
+    void missing() throws IOException {
+        this.fieldStart(nullText.length);
+        System.arraycopy(nullText, 0, this.bytes, this.position, nullText.length);
+        this.position += nullText.length;
+    }
+
+    //bid or ask price of a buffer row, null if missing (row -1)
+    void quote(BarBuffer prices, int row) throws IOException {
+        if (row < 0 || prices.isNull(row)) {
+            this.missing();
+        } else {
+            this.price(prices.open(row));
+        }
+    }
+
+    //open, high, low, close, volume of a buffer row, all null if missing (row -1)
+    void trades(BarBuffer trades, int row) throws IOException {
+        if (row < 0 || trades.isNull(row)) {
+            for (int i = 0; i < 5; i++) {
+                this.missing();
+            }
+        } else {
+            this.price(trades.open(row));
+            this.price(trades.high(row));
+            this.price(trades.low(row));
+            this.price(trades.close(row));
+            this.volume(trades.volume(row));
+        }
+    }
+
+    void endRow() throws IOException {
+        this.ensureRoom(lineSeparator.length);
+        System.arraycopy(lineSeparator, 0, this.bytes, this.position, lineSeparator.length);
+        this.position += lineSeparator.length;
+        this.isRowStart = true;
+    }
+
+    //separator unless first field, and room for the field
+    private void fieldStart(int maxLength) throws IOException {
+        this.ensureRoom(maxLength + separator.length);
+        if (!this.isRowStart) {
+            this.bytes[this.position++] = separator[0];
+            this.bytes[this.position++] = separator[1];
+        }
+        this.isRowStart = false;
+    }
+
+    /*
+    write the value as Double.toString does when it is the nearest double to a decimal with at most 4 decimals, in plain notation range
+    the nearest double to m / 10^k is exactly (double) m / 10^k as division is correctly rounded, and Double.toString gives the fewest decimals that round-trip
+    @return false if the value needs the general path
+    */
+    private boolean appendShortDecimal(double value) {
+        double magnitude = Math.abs(value);
+        if (!(magnitude >= 1e-3 && magnitude < 1e7)) { //Double.toString uses scientific notation outside, NaN excluded too
+            return false;
+        }
+        for (int decimals = 0; decimals <= maxFastDecimals; decimals++) {
+            long scaled = Math.round(magnitude * powersOfTen[decimals]);
+            if (scaled / powersOfTen[decimals] == magnitude) {
+                if (value < 0) {
+                    this.bytes[this.position++] = '-';
+                }
+                this.appendLong(scaled / (long) powersOfTen[decimals]);
+                this.bytes[this.position++] = '.';
+                if (decimals == 0) { //whole number shown as x.0
+                    this.bytes[this.position++] = '0';
+                    return true;
+                }
+                long fraction = scaled % (long) powersOfTen[decimals];
+                for (int i = this.position + decimals - 1; i >= this.position; i--, fraction /= 10) { //zero padded, e.g. .05
+                    this.bytes[i] = (byte) ('0' + fraction % 10);
+                }
+                this.position += decimals;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void appendLong(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                byte[] text = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(text, 0, this.bytes, this.position, text.length);
+                this.position += text.length;
+                return;
+            }
+            this.bytes[this.position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = this.position + digits - 1; i >= this.position; i--, value /= 10) {
+            this.bytes[i] = (byte) ('0' + value % 10);
+        }
+        this.position += digits;
+    }
+
+    private void ensureRoom(int length) throws IOException {
+        if (this.position + length > this.bytes.length) {
+            this.flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        this.buffer.clear().limit(this.position);
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,370 @@
+package historicalData;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/*
+counters and timings of a download run: requests sent and answered with latency, bars received, files and bytes written, pacing waits, data farm outages and re-sent requests per ticker
+updated from the message thread and the writer thread, read from JMX threads, so all fields are atomic or guarded
+exposed as an MBean while the run is in progress, and written as a json summary at the end of it; the metrics of parallel sessions are combined into one
+*/
+public class DownloadMetrics implements DownloadMetricsMBean {
+
+    static final String fileName = "download-metrics.json";
+    private static final String objectName = "historicalData:type=DownloadMetrics";
+    private static final long[] bucketMillis = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, Long.MAX_VALUE}; //latency histogram upper bounds
+
+    private Instant startedAt = Instant.now();
+    private volatile Instant endedAt; //null while running
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong requestsCompleted = new AtomicLong();
+    private final AtomicLong requestsWithoutData = new AtomicLong();
+    private final LongAdder barsReceived = new LongAdder(); //incremented per bar
+    private final AtomicLong tickersSaved = new AtomicLong();
+    private final AtomicLong tickersSkipped = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong saveNanos = new AtomicLong();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(bucketMillis.length);
+    private long[] latencies = new long[1024]; //nanos from send to end of each answered request, guarded by this
+    private int latencyCount = 0;
+    private final AtomicLong pacingViolations = new AtomicLong();
+    private volatile long pacingHeldBack = 0; //mirrored from the governor, which only the message thread touches
+    private volatile long pacingWaitMillis = 0;
+    private final AtomicLong farmOutages = new AtomicLong();
+    private final AtomicLong farmOutageMillis = new AtomicLong();
+    private final Map<String, Long> farmsDown = new ConcurrentHashMap<>(); //farm notice code -> millis when reported broken
+    private final Map<String, Integer> retriesPerTicker = new ConcurrentSkipListMap<>();
+    private ObjectName registeredName; //null unless registered
+
+    void recordSent() {
+        this.requestsSent.incrementAndGet();
+    }
+
+    void recordBar() {
+        this.barsReceived.increment();
+    }
+
+    //a request answered in full
+    void recordCompleted(long latencyNanos) {
+        this.requestsCompleted.incrementAndGet();
+        long millis = latencyNanos / 1000000;
+        int bucket = 0;
+        while (millis > bucketMillis[bucket]) {
+            bucket++;
+        }
+        this.latencyHistogram.incrementAndGet(bucket);
+        synchronized (this) {
+            if (this.latencyCount == this.latencies.length) {
+                this.latencies = Arrays.copyOf(this.latencies, this.latencyCount * 2);
+            }
+            this.latencies[this.latencyCount++] = latencyNanos;
+        }
+    }
+
+    void recordWithoutData() {
+        this.requestsWithoutData.incrementAndGet();
+    }
+
+    //a request rejected for pacing and queued again
+    void recordPacingViolation(String ticker) {
+        this.pacingViolations.incrementAndGet();
+        this.retriesPerTicker.merge(ticker, 1, Integer::sum);
+    }
+
+    void recordPacing(long heldBack, long waitMillis) {
+        this.pacingHeldBack = heldBack;
+        this.pacingWaitMillis = waitMillis;
+    }
+
+    /*
+    a data farm reported broken (2103/2105/2157), timed until recordFarmRestored for the same farm
+    @param String farm: farm name at the end of the notice, e.g. usfarm
+    */
+    void recordFarmOutage(String farm, long now) {
+        if (this.farmsDown.putIfAbsent(farm, now) == null) {
+            this.farmOutages.incrementAndGet();
+        }
+    }
+
+    //a data farm reported OK (2104/2106/2158), ending its outage if any
+    void recordFarmRestored(String farm, long now) {
+        Long since = this.farmsDown.remove(farm);
+        if (since != null) {
+            this.farmOutageMillis.addAndGet(now - since);
+        }
+    }
+
+    //a ticker saved by the writer
+    void recordSaved(long nanos, long bytes) {
+        this.tickersSaved.incrementAndGet();
+        this.saveNanos.addAndGet(nanos);
+        this.bytesWritten.addAndGet(bytes);
+    }
+
+    void recordSkipped() {
+        this.tickersSkipped.incrementAndGet();
+    }
+
+    //the run is over, outages still open are counted up to now
+    void end() {
+        this.endedAt = Instant.now();
+        for (String farm : this.farmsDown.keySet()) {
+            this.recordFarmRestored(farm, this.endedAt.toEpochMilli());
+        }
+    }
+
+    /*
+    register as an MBean; a name taken by another downloader in the same JVM is left to it
+    @param String session: name of the session within a pool, null for a single connection
+    */
+    void register(String session) {
+        try {
+            ObjectName name = new ObjectName(session == null ? objectName : objectName + ",session=" + session);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            this.registeredName = name;
+        } catch (InstanceAlreadyExistsException err) {
+            ; //metrics still written to the summary
+        } catch (JMException err) {
+            System.out.println("Unable to register metrics MBean: " + err.getMessage());
+        }
+    }
+
+    void unregister() {
+        if (this.registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.registeredName);
+        } catch (JMException err) {
+            ; //already gone
+        }
+        this.registeredName = null;
+    }
+
+    //one run's metrics out of those of its sessions: counts summed, latencies pooled, from the first start to the last end
+    static DownloadMetrics combine(List<DownloadMetrics> sessions) {
+        DownloadMetrics combined = new DownloadMetrics();
+        Instant endedAt = null;
+        for (DownloadMetrics session : sessions) {
+            if (session.startedAt.isBefore(combined.startedAt)) {
+                combined.startedAt = session.startedAt;
+            }
+            if (session.endedAt != null && (endedAt == null || session.endedAt.isAfter(endedAt))) {
+                endedAt = session.endedAt;
+            }
+            combined.requestsSent.addAndGet(session.getRequestsSent());
+            combined.requestsCompleted.addAndGet(session.getRequestsCompleted());
+            combined.requestsWithoutData.addAndGet(session.getRequestsWithoutData());
+            combined.barsReceived.add(session.getBarsReceived());
+            combined.tickersSaved.addAndGet(session.getTickersSaved());
+            combined.tickersSkipped.addAndGet(session.getTickersSkipped());
+            combined.bytesWritten.addAndGet(session.getBytesWritten());
+            combined.saveNanos.addAndGet(session.saveNanos.get());
+            long[] counts = session.getLatencyHistogram();
+            for (int i = 0; i < counts.length; i++) {
+                combined.latencyHistogram.addAndGet(i, counts[i]);
+            }
+            for (long latency : session.getRequestLatencies()) {
+                synchronized (combined) {
+                    if (combined.latencyCount == combined.latencies.length) {
+                        combined.latencies = Arrays.copyOf(combined.latencies, combined.latencyCount * 2);
+                    }
+                    combined.latencies[combined.latencyCount++] = latency;
+                }
+            }
+            combined.pacingViolations.addAndGet(session.getPacingViolations());
+            combined.farmOutages.addAndGet(session.getFarmOutages());
+            combined.farmOutageMillis.addAndGet(session.getFarmOutageMillis());
+            session.retriesPerTicker.forEach((ticker, count) -> combined.retriesPerTicker.merge(ticker, count, Integer::sum));
+        }
+        //sessions sharing a governor report the same pacing figures, the largest is the total of that governor
+        combined.pacingHeldBack = sessions.stream().mapToLong(DownloadMetrics::getPacingHeldBack).max().orElse(0);
+        combined.pacingWaitMillis = sessions.stream().mapToLong(DownloadMetrics::getPacingWaitMillis).max().orElse(0);
+        combined.endedAt = endedAt;
+        return combined;
+    }
+
+    //write the json summary into the directory, replacing the one of an earlier run
+    Path writeSummary(Path dirPath) throws IOException {
+        Path filePath = dirPath.resolve(fileName);
+        Files.writeString(filePath, this.getSummaryJson(), StandardCharsets.UTF_8);
+        return filePath;
+    }
+
+    //latencies of the answered requests in nanos, in order answered
+    synchronized long[] getRequestLatencies() {
+        return Arrays.copyOf(this.latencies, this.latencyCount);
+    }
+
+    private double latencyPercentileMillis(double fraction) {
+        long[] sorted = this.getRequestLatencies();
+        if (sorted.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)] / 1e6;
+    }
+
+    @Override
+    public long getRequestsSent() {
+        return this.requestsSent.get();
+    }
+
+    @Override
+    public long getRequestsCompleted() {
+        return this.requestsCompleted.get();
+    }
+
+    @Override
+    public long getRequestsWithoutData() {
+        return this.requestsWithoutData.get();
+    }
+
+    @Override
+    public long getBarsReceived() {
+        return this.barsReceived.sum();
+    }
+
+    @Override
+    public long getTickersSaved() {
+        return this.tickersSaved.get();
+    }
+
+    @Override
+    public long getTickersSkipped() {
+        return this.tickersSkipped.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return this.bytesWritten.get();
+    }
+
+    @Override
+    public long getSaveMillis() {
+        return this.saveNanos.get() / 1000000;
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return this.latencyPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getLatencyP90Millis() {
+        return this.latencyPercentileMillis(0.9);
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return this.latencyPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getLatencyMaxMillis() {
+        return this.latencyPercentileMillis(1);
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+        long[] counts = new long[bucketMillis.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.latencyHistogram.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public long[] getLatencyBucketMillis() {
+        return bucketMillis.clone();
+    }
+
+    @Override
+    public long getPacingViolations() {
+        return this.pacingViolations.get();
+    }
+
+    @Override
+    public long getPacingHeldBack() {
+        return this.pacingHeldBack;
+    }
+
+    @Override
+    public long getPacingWaitMillis() {
+        return this.pacingWaitMillis;
+    }
+
+    @Override
+    public long getFarmOutages() {
+        return this.farmOutages.get();
+    }
+
+    @Override
+    public long getFarmOutageMillis() {
+        return this.farmOutageMillis.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return this.retriesPerTicker.values().stream().mapToLong(Integer::longValue).sum();
+    }
+
+    @Override
+    public long getElapsedSeconds() {
+        Instant end = this.endedAt != null ? this.endedAt : Instant.now();
+        return Duration.between(this.startedAt, end).getSeconds();
+    }
+
+    @Override
+    public String getSummaryJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        field(json, "startedAt", quote(this.startedAt.toString()));
+        field(json, "endedAt", this.endedAt != null ? quote(this.endedAt.toString()) : "null");
+        field(json, "elapsedSeconds", this.getElapsedSeconds());
+        field(json, "requestsSent", this.getRequestsSent());
+        field(json, "requestsCompleted", this.getRequestsCompleted());
+        field(json, "requestsWithoutData", this.getRequestsWithoutData());
+        field(json, "barsReceived", this.getBarsReceived());
+        field(json, "tickersSaved", this.getTickersSaved());
+        field(json, "tickersSkipped", this.getTickersSkipped());
+        field(json, "bytesWritten", this.getBytesWritten());
+        field(json, "saveMillis", this.getSaveMillis());
+        field(json, "latencyMillis", "{\"p50\": " + this.getLatencyP50Millis() + ", \"p90\": " + this.getLatencyP90Millis() + ", \"p99\": " + this.getLatencyP99Millis() + ", \"max\": " + this.getLatencyMaxMillis() + "}");
+        StringJoiner buckets = new StringJoiner(", ", "{", "}");
+        long[] counts = this.getLatencyHistogram();
+        for (int i = 0; i < counts.length; i++) {
+            buckets.add(quote(bucketMillis[i] == Long.MAX_VALUE ? "inf" : String.valueOf(bucketMillis[i])) + ": " + counts[i]);
+        }
+        field(json, "latencyHistogramMillis", buckets.toString());
+        field(json, "pacingViolations", this.getPacingViolations());
+        field(json, "pacingHeldBack", this.getPacingHeldBack());
+        field(json, "pacingWaitMillis", this.getPacingWaitMillis());
+        field(json, "farmOutages", this.getFarmOutages());
+        field(json, "farmOutageMillis", this.getFarmOutageMillis());
+        StringJoiner retries = new StringJoiner(", ", "{", "}");
+        this.retriesPerTicker.forEach((ticker, count) -> retries.add(quote(ticker) + ": " + count));
+        json.append("  \"retriesPerTicker\": ").append(retries).append("\n}\n");
+        return json.toString();
+    }
+
+    private static void field(StringBuilder json, String name, Object value) {
+        json.append("  ").append(quote(name)).append(": ").append(value).append(",\n");
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    @Override   //one line summary
+    public String toString() {
+        return "Metrics: " + this.getRequestsCompleted() + "/" + this.getRequestsSent() + " requests answered (p50 " + this.getLatencyP50Millis() + " ms, p99 " + this.getLatencyP99Millis() + " ms), " + this.getBarsReceived() + " bars received, " + this.getBytesWritten() / 1024 + " KB written, " + this.getFarmOutages() + " data farm outages.";
+    }
+
+}
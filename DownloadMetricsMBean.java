@@ -0,0 +1,53 @@
+package historicalData;
+
+/*
+JMX view of a download run's metrics, registered as historicalData:type=DownloadMetrics while start() runs
+times in millis unless named otherwise
+*/
+public interface DownloadMetricsMBean {
+
+    long getRequestsSent();
+
+    long getRequestsCompleted();
+
+    long getRequestsWithoutData(); //answered 162 no data
+
+    long getBarsReceived();
+
+    long getTickersSaved();
+
+    long getTickersSkipped(); //no data at all
+
+    long getBytesWritten();
+
+    long getSaveMillis(); //total time the writer spent saving tickers
+
+    double getLatencyP50Millis();
+
+    double getLatencyP90Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyMaxMillis();
+
+    long[] getLatencyHistogram(); //requests per bucket, upper bounds in getLatencyBucketMillis()
+
+    long[] getLatencyBucketMillis();
+
+    long getPacingViolations(); //reported by TWS, each request re-sent
+
+    long getPacingHeldBack(); //requests the governor held back
+
+    long getPacingWaitMillis(); //total time requests were held back
+
+    long getFarmOutages(); //2103/2105/2157 notices
+
+    long getFarmOutageMillis(); //until the farm was reported back
+
+    long getRetries(); //requests re-sent, all tickers
+
+    long getElapsedSeconds();
+
+    String getSummaryJson();
+
+}
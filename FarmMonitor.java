@@ -0,0 +1,62 @@
+package historicalData;
+
+import java.util.*;
+
+/*
+data farm connection state from TWS notices, so new requests are held while a farm is down instead of the message thread sleeping through the outage
+a farm goes down on 2103 (market data), 2105 (HMDS) or 2157 (sec-def) and back up on the matching 2104/2106/2158, farms told apart by the name ending the notice
+while any farm is down no request is sent; messages keep being processed, so requests in flight complete and the OK notice is seen as it arrives
+if no OK notice comes within the timeout, requests resume anyway; a farm reported down again before any OK doubles the timeout, reset once all farms are back
+*/
+class FarmMonitor {
+
+    private static final long minTimeoutMillis = 30_000; //hold before resuming without an OK notice
+    private static final long maxTimeoutMillis = 5 * 60_000;
+
+    private Map<String, Long> downUntil = new HashMap<>(); //farm -> time requests resume if still no OK notice
+    private long timeoutMillis = minTimeoutMillis;
+
+    /*
+    a farm reported broken
+    @param String farm: name at the end of the notice, e.g. ushmds
+    @param long now: current time in millis
+    */
+    void recordDown(String farm, long now) {
+        this.downUntil.put(farm, now + this.timeoutMillis);
+        this.timeoutMillis = Math.min(this.timeoutMillis * 2, maxTimeoutMillis); //a farm that keeps failing is waited on longer
+    }
+
+    /*
+    a farm reported OK
+    @return true if it was down, requests may then resume
+    */
+    boolean recordUp(String farm) {
+        boolean wasDown = this.downUntil.remove(farm) != null;
+        if (this.downUntil.isEmpty()) {
+            this.timeoutMillis = minTimeoutMillis;
+        }
+        return wasDown;
+    }
+
+    /*
+    millis to wait before a request can be sent, 0 if every farm is up or its timeout passed
+    */
+    long delay(long now) {
+        long wait = 0;
+        Iterator<Long> deadlines = this.downUntil.values().iterator();
+        while (deadlines.hasNext()) {
+            long deadline = deadlines.next();
+            if (deadline <= now) { //no OK notice in time, assumed back; the doubled timeout stays for a repeat
+                deadlines.remove();
+                continue;
+            }
+            wait = Math.max(wait, deadline - now);
+        }
+        return wait;
+    }
+
+    boolean isDown(long now) {
+        return this.delay(now) > 0;
+    }
+
+}
@@ -0,0 +1,73 @@
+package historicalData;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+earliest bar IB has for a symbol and price type, as answered by reqHeadTimestamp, kept on disk so a symbol is probed once rather than every run
+entries are "<symbol> <whatToShow> <head epoch seconds> <probed epoch seconds>", tab separated, one per line and appended as probed; a later line for the same key wins
+an entry older than 30 days is probed again, a symbol reused after a corporate action gets a new contract and history; a line torn by a crash is ignored
+shared by the sessions of a pool, so synchronized
+*/
+final class HeadTimestampCache {
+
+    static final String fileName = "head-timestamps.log";
+    private static final long maxAgeSeconds = 30L * 86400; //entries probed again after 30 days
+
+    //earliest bar and when it was probed, epoch seconds
+    private record Entry(long head, long probedAt) {
+    }
+
+    private final Path filePath;
+    private final Map<String, Entry> entries = new HashMap<>(); //symbol|whatToShow -> entry
+
+    /*
+    @param Path dirPath: directory the file lives in, created if missing; may be shared by runs and downloaders
+    */
+    HeadTimestampCache(Path dirPath) throws IOException {
+        Files.createDirectories(dirPath);
+        this.filePath = dirPath.resolve(fileName);
+        if (Files.exists(this.filePath)) {
+            this.read();
+        }
+    }
+
+    private void read() throws IOException {
+        String content = Files.readString(this.filePath, StandardCharsets.UTF_8);
+        for (String line : content.substring(0, content.lastIndexOf('\n') + 1).split("\n")) { //complete lines only
+            String[] fields = line.split("\t");
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                this.entries.put(fields[0] + "|" + fields[1], new Entry(Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+            } catch (NumberFormatException err) {
+                ; //not an entry, skipped
+            }
+        }
+    }
+
+    /*
+    @param long now: current time in epoch seconds
+    @return head epoch seconds, null if never probed or probed more than 30 days ago
+    */
+    synchronized Long get(String symbol, String whatToShow, long now) {
+        Entry entry = this.entries.get(symbol + "|" + whatToShow);
+        if (entry == null || now - entry.probedAt() > maxAgeSeconds) {
+            return null;
+        }
+        return entry.head();
+    }
+
+    synchronized void put(String symbol, String whatToShow, long head, long now) throws IOException {
+        this.entries.put(symbol + "|" + whatToShow, new Entry(head, now));
+        try (FileChannel channel = FileChannel.open(this.filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap((symbol + "\t" + whatToShow + "\t" + head + "\t" + now + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+}
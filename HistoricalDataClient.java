@@ -0,0 +1,484 @@
+package historicalData;
+
+import com.ib.client.*;
+import java.io.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+asynchronous historical data for in-process callers, bars returned as series instead of saved to files by a blocking start()
+one connection to TWS serves every caller: fetch() may be called from any thread, hands the request to the message thread and returns a future at once
+the message thread multiplexes the requests of all callers over the connection in the order fetched, under one pacing governor, data farm hold and concurrent request limit
+a fetch is split into sub-windows as downloads are (see WindowPlanner) and its requests merged into one series; identical requests of concurrent fetches are sent once and shared
+futures are completed on the common pool, never on the message thread, so slow dependent stages of one caller do not hold up the others
+*/
+public final class HistoricalDataClient implements AutoCloseable {
+
+    //price types a fetch can ask for, bid and ask for intraday bar sizes only
+    public enum DataType {
+        TRADES,
+        BID,
+        ASK
+    }
+
+    private static final int maxConcurrentRequests = 10; //IB allows 10 simultaneous requests per connection
+    //API connection handles
+    private final EClientSocket client; //socket obj to send TWS requests
+    private final EReaderSignal readerSignal; //signalled by the reader on messages, by callers on new fetches and by the timer on wakeups
+    private final EReader reader;
+    private final Thread messageLoop; //only thread sending requests and running callbacks, so the state below is unsynchronized
+    private final ScheduledExecutorService wakeupTimer; //wakes the message loop when a held-back request becomes sendable
+    private long scheduledWakeup = 0; //time of the pending wakeup, 0 if none
+    private volatile boolean isOpen = true;
+    private volatile IOException failure; //why the connection ended, null while open or if closed by close()
+    //requests of all callers
+    private final Queue<Fetch> submitted = new ConcurrentLinkedQueue<>(); //fetches handed over by callers, not yet split into requests
+    private final Deque<Request> pendingRequests = new ArrayDeque<>(); //requests waiting for a free slot, in the order fetched
+    private final Map<Integer, Request> activeRequests = new HashMap<>(); //in-flight requests, reqId -> request
+    private final Map<String, Request> openRequests = new HashMap<>(); //identity key -> request pending or in flight, joined by identical requests of later fetches
+    private final RequestGovernor smallBarGovernor = new RequestGovernor(true); //seconds bar sizes, strict pacing
+    private final RequestGovernor largeBarGovernor = new RequestGovernor(false);
+    private final FarmMonitor farms = new FarmMonitor(); //holds back requests while a data farm is down
+    private int nextReqId = 1; //reqId allocator, never reused within the connection
+
+    private HistoricalDataClient(String host, int port, int clientId) throws IOException {
+        this.readerSignal = new EJavaSignal();
+        this.client = new EClientSocket(new Callbacks(), this.readerSignal);
+        this.client.eConnect(host, port, clientId);
+        if (!this.client.isConnected()) {
+            throw new IOException("Unable to connect to TWS at " + host + ":" + port + ".");
+        }
+        this.reader = new EReader(this.client, this.readerSignal);
+        this.reader.start(); //reader thread listening for messages and placing them into the queue
+        this.wakeupTimer = Executors.newSingleThreadScheduledExecutor(runnable -> { //daemon so a pending wakeup never keeps the JVM alive
+            Thread thread = new Thread(runnable, "pacing-wakeup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.messageLoop = new Thread(this::runLoop, "historical-data-client");
+        this.messageLoop.setDaemon(true);
+        this.messageLoop.start();
+    }
+
+    /*
+    connect to TWS/Gateway, one client per connection to be shared by all callers of the process
+    @param String host, int port: where TWS/Gateway listens, such as "127.0.0.1" and 7496
+    @param int clientId: unique among the connections to the same TWS, including downloaders
+    */
+    public static HistoricalDataClient connect(String host, int port, int clientId) throws IOException {
+        HistoricalDataClient client = new HistoricalDataClient(host, port, clientId);
+        System.out.println("Connection to TWS established (client " + clientId + ", " + host + ":" + port + ").");
+        return client;
+    }
+
+    /*
+    fetch the bars of a symbol over a window, from any thread; its requests go out on the shared connection along with those of other callers
+    @param String symbol: US stock symbol
+    @param LocalDate endDate: last day of the window, up to its close
+    @param String period: "<digit> DurationString" back from the end date, as for downloads
+    @param String barSize: as for downloads, such as "1 min", "1 hour", "1 day"
+    @param Set<DataType> types: price types wanted, bid and ask intraday only; those not wanted are NaN in the series
+    @return series of the window, empty if IB has no data in it; failed with an IOException on an IB error or a lost connection, cancelling it drops its requests not yet answered
+    */
+    public CompletableFuture<HistoricalDataStore.BarSeries> fetch(String symbol, LocalDate endDate, String period, String barSize, Set<DataType> types) throws IllegalArgumentException {
+
+        boolean isIntraday = Arrays.stream(new String[]{"sec", "min", "hour"}).anyMatch(barSize::contains);
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("No price type to fetch.");
+        }
+        if (!isIntraday && !types.equals(EnumSet.of(DataType.TRADES))) {
+            throw new IllegalArgumentException("Bid and ask are only available for intraday bar sizes.");
+        }
+        String endDateTime = HistoricalDataDownloader.makeDateTime(endDate.getYear(), endDate.getMonthValue(), endDate.getDayOfMonth());
+        Fetch fetch = new Fetch(HistoricalDataDownloader.makeContract(symbol), barSize, isIntraday, EnumSet.copyOf(types), WindowPlanner.plan(endDateTime, period, barSize));
+
+        fetch.future.whenComplete((series, err) -> { //a cancelled fetch frees its requests' slots right away, not on the next TWS message
+            if (fetch.future.isCancelled() && this.isOpen) {
+                this.readerSignal.issueSignal();
+            }
+        });
+        this.submitted.add(fetch);
+        if (this.isOpen) {
+            this.readerSignal.issueSignal(); //wake the message loop to queue its requests
+        } else { //closed meanwhile, the message loop may be gone
+            this.failSubmitted(new IOException("Client is closed."));
+        }
+        return fetch.future;
+
+    }
+
+    //bid, ask and trades for intraday bar sizes, trades for interday ones, as downloads save
+    public CompletableFuture<HistoricalDataStore.BarSeries> fetch(String symbol, LocalDate endDate, String period, String barSize) throws IllegalArgumentException {
+        boolean isIntraday = Arrays.stream(new String[]{"sec", "min", "hour"}).anyMatch(barSize::contains);
+        return this.fetch(symbol, endDate, period, barSize, isIntraday ? EnumSet.allOf(DataType.class) : EnumSet.of(DataType.TRADES));
+    }
+
+    /*
+    disconnect once the message loop stops, fetches not yet completed fail
+    */
+    @Override
+    public void close() {
+        this.isOpen = false;
+        this.readerSignal.issueSignal();
+        try {
+            this.messageLoop.join(10_000);
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isOpen() {
+        return this.isOpen;
+    }
+
+    //queue the fetches callers handed over, send what the slots and pacing allow, and process messages until closed or the connection is lost
+    private void runLoop() {
+        try {
+            while (this.isOpen) {
+                this.readerSignal.waitForSignal();
+                this.reader.processMsgs(); //trigger callbacks
+                Fetch fetch;
+                while ((fetch = this.submitted.poll()) != null) {
+                    this.queueRequests(fetch);
+                }
+                this.dispatchRequests();
+            }
+        } catch (IOException err) {
+            this.failure = err;
+        } catch (RuntimeException err) {
+            this.failure = new IOException(err.getMessage(), err);
+        } finally {
+            this.isOpen = false;
+            this.client.eDisconnect();
+            this.wakeupTimer.shutdownNow();
+            IOException reason = this.failure != null ? this.failure : new IOException("Client is closed.");
+            for (Request request : this.openRequests.values()) {
+                for (Fetch fetch : request.fetches) {
+                    this.fail(fetch, reason);
+                }
+            }
+            this.failSubmitted(reason);
+        }
+    }
+
+    //fail fetches no longer reaching the message loop, from whichever thread sees it closed
+    private void failSubmitted(IOException reason) {
+        Fetch fetch;
+        while ((fetch = this.submitted.poll()) != null) {
+            fetch.future.completeExceptionally(reason);
+        }
+    }
+
+    /*
+    one request per sub-window and price type, oldest window first; a request identical to one pending or in flight for another fetch is joined instead of sent again
+    */
+    private void queueRequests(Fetch fetch) {
+        if (!fetch.isWaiting()) { //cancelled before it got here
+            return;
+        }
+        for (int chunk = 0; chunk < fetch.windows.size(); chunk++) {
+            WindowPlanner.Window window = fetch.windows.get(fetch.windows.size() - 1 - chunk); //planned newest first
+            for (DataType type : fetch.types) {
+                String identityKey = fetch.contract.symbol() + "|" + fetch.barSize + "|" + type.name() + "|" + window.endDateTime() + "|" + window.duration();
+                Request request = this.openRequests.get(identityKey);
+                if (request == null) {
+                    request = new Request(fetch.contract, fetch.barSize, type, window, identityKey);
+                    this.openRequests.put(identityKey, request);
+                    this.pendingRequests.add(request);
+                }
+                request.fetches.add(fetch);
+                fetch.requests.get(type).add(request);
+                fetch.remainingRequests++;
+            }
+        }
+        if (fetch.remainingRequests == 0) { //no window to request
+            this.complete(fetch);
+        }
+    }
+
+    /*
+    drop requests no fetch waits on any more, then send pending ones until maxConcurrentRequests are in flight or none left, skipping those the pacing governor holds back
+    nothing is sent while a data farm is down
+    */
+    private void dispatchRequests() {
+
+        Iterator<Request> active = this.activeRequests.values().iterator();
+        while (active.hasNext()) {
+            Request request = active.next();
+            if (!request.isWanted()) { //its fetches cancelled or failed
+                if (this.client.isConnected()) {
+                    this.client.cancelHistoricalData(request.reqId);
+                }
+                this.openRequests.remove(request.identityKey);
+                active.remove();
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        long nextTry = Long.MAX_VALUE; //shortest wait among held-back requests
+        long farmWait = this.farms.delay(now);
+        Iterator<Request> pending = this.pendingRequests.iterator();
+
+        while (this.activeRequests.size() < maxConcurrentRequests && pending.hasNext()) {
+
+            Request request = pending.next();
+            if (!request.isWanted()) {
+                this.governor(request).release(request.identityKey);
+                this.openRequests.remove(request.identityKey);
+                pending.remove();
+                continue;
+            }
+            if (farmWait > 0) { //the OK notice wakes the loop sooner
+                nextTry = farmWait;
+                break;
+            }
+
+            long wait = this.governor(request).tryAcquire(request.contract.symbol() + "|" + request.barSize + "|" + request.type.name(), request.identityKey, now);
+            if (wait > 0) { //held back, other symbols may still go
+                nextTry = Math.min(nextTry, wait);
+                continue;
+            }
+
+            pending.remove();
+            request.reqId = this.nextReqId++;
+            this.activeRequests.put(request.reqId, request);
+            this.client.reqHistoricalData(request.reqId, request.contract, request.window.endDateTime(), request.window.duration(), request.barSize, request.type.name(), 1, 1, false, null);
+
+        }
+
+        if (nextTry != Long.MAX_VALUE) {
+            this.scheduleWakeup(now + nextTry);
+        }
+
+    }
+
+    //have the message loop woken at the given time, as no TWS message may arrive to wake it
+    private void scheduleWakeup(long wakeupTime) {
+        if (this.scheduledWakeup != 0 && this.scheduledWakeup <= wakeupTime && this.scheduledWakeup > System.currentTimeMillis()) { //an earlier wakeup already pending
+            return;
+        }
+        this.scheduledWakeup = wakeupTime;
+        this.wakeupTimer.schedule(() -> this.readerSignal.issueSignal(), Math.max(wakeupTime - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+    }
+
+    //IB applies its strict limits to bar sizes of 30 secs or less, so those are paced apart from larger ones
+    private RequestGovernor governor(Request request) {
+        return request.barSize.contains("sec") ? this.smallBarGovernor : this.largeBarGovernor;
+    }
+
+    //a request answered, each fetch waiting on it completes once all its requests are
+    private void endRequest(Request request) {
+        this.openRequests.remove(request.identityKey);
+        for (Fetch fetch : request.fetches) {
+            fetch.remainingRequests--;
+            if (fetch.remainingRequests == 0 && fetch.isWaiting()) {
+                this.complete(fetch);
+            }
+        }
+    }
+
+    private void complete(Fetch fetch) {
+        HistoricalDataStore.BarSeries series;
+        try {
+            series = toSeries(fetch);
+        } catch (IOException | RuntimeException err) {
+            this.fail(fetch, err instanceof IOException io ? io : new IOException(err.getMessage(), err));
+            return;
+        }
+        fetch.isFinished = true;
+        ForkJoinPool.commonPool().execute(() -> fetch.future.complete(series));
+    }
+
+    private void fail(Fetch fetch, IOException err) {
+        fetch.isFinished = true;
+        ForkJoinPool.commonPool().execute(() -> fetch.future.completeExceptionally(err));
+    }
+
+    /*
+    merge the windows of each price type and join them on timestamp into one series, as downloads join them into rows
+    */
+    private static HistoricalDataStore.BarSeries toSeries(Fetch fetch) throws IOException {
+
+        BarBuffer bids = merged(fetch, DataType.BID);
+        BarBuffer asks = merged(fetch, DataType.ASK);
+        BarBuffer trades = merged(fetch, DataType.TRADES);
+        int[] size = {0};
+        HistoricalDataDownloader.joinBidAskTrades(bids, asks, trades, (timestamp, bidRow, askRow, tradeRow) -> size[0]++);
+
+        int quoteSize = fetch.isIntraday ? size[0] : 0; //bid and ask empty for interday data
+        long[] time = new long[size[0]];
+        double[] bid = new double[quoteSize];
+        double[] ask = new double[quoteSize];
+        double[] open = new double[size[0]];
+        double[] high = new double[size[0]];
+        double[] low = new double[size[0]];
+        double[] close = new double[size[0]];
+        long[] volume = new long[size[0]];
+        int[] row = {0};
+        HistoricalDataDownloader.joinBidAskTrades(bids, asks, trades, (timestamp, bidRow, askRow, tradeRow) -> {
+            int i = row[0]++;
+            time[i] = timestamp;
+            if (fetch.isIntraday) {
+                bid[i] = bidRow < 0 || bids.isNull(bidRow) ? Double.NaN : bids.open(bidRow);
+                ask[i] = askRow < 0 || asks.isNull(askRow) ? Double.NaN : asks.open(askRow);
+            }
+            boolean isNull = tradeRow < 0 || trades.isNull(tradeRow);
+            open[i] = isNull ? Double.NaN : trades.open(tradeRow);
+            high[i] = isNull ? Double.NaN : trades.high(tradeRow);
+            low[i] = isNull ? Double.NaN : trades.low(tradeRow);
+            close[i] = isNull ? Double.NaN : trades.close(tradeRow);
+            volume[i] = isNull ? -1 : trades.volume(tradeRow);
+        });
+        return new HistoricalDataStore.BarSeries(fetch.isIntraday, time, bid, ask, open, high, low, close, volume);
+
+    }
+
+    //the windows of a price type as one series, empty if the type was not fetched
+    private static BarBuffer merged(Fetch fetch, DataType type) {
+        BarBuffer series = new BarBuffer();
+        series.appendDistinct(fetch.requests.get(type).stream().map(request -> request.buffer).toList());
+        return series;
+    }
+
+    //a caller's fetch, waiting on its requests
+    private static final class Fetch {
+        private final Contract contract;
+        private final String barSize;
+        private final boolean isIntraday;
+        private final Set<DataType> types;
+        private final List<WindowPlanner.Window> windows; //sub-windows of the period, newest first
+        private final Map<DataType, List<Request>> requests = new EnumMap<>(DataType.class); //requests per price type, oldest window first
+        private final CompletableFuture<HistoricalDataStore.BarSeries> future = new CompletableFuture<>();
+        private int remainingRequests = 0; //requests not yet answered
+        private boolean isFinished = false; //completed or failed by the message loop, its future possibly not yet
+
+        private Fetch(Contract contract, String barSize, boolean isIntraday, Set<DataType> types, List<WindowPlanner.Window> windows) {
+            this.contract = contract;
+            this.barSize = barSize;
+            this.isIntraday = isIntraday;
+            this.types = types;
+            this.windows = windows;
+            for (DataType type : DataType.values()) {
+                this.requests.put(type, new ArrayList<>());
+            }
+        }
+
+        //false once completed or failed, or cancelled by its caller
+        private boolean isWaiting() {
+            return !this.isFinished && !this.future.isDone();
+        }
+    }
+
+    //a historical data request, shared by the fetches asking for the same symbol, bar size, price type and window
+    private static final class Request {
+        private final Contract contract;
+        private final String barSize;
+        private final DataType type;
+        private final WindowPlanner.Window window;
+        private final String identityKey; //identical requests to IB share it
+        private final List<Fetch> fetches = new ArrayList<>();
+        private final BarBuffer buffer = new BarBuffer(); //bars received, only open kept for bid and ask
+        private int reqId; //allocated when sent
+
+        private Request(Contract contract, String barSize, DataType type, WindowPlanner.Window window, String identityKey) {
+            this.contract = contract;
+            this.barSize = barSize;
+            this.type = type;
+            this.window = window;
+            this.identityKey = identityKey;
+        }
+
+        private boolean isWanted() {
+            return this.fetches.stream().anyMatch(Fetch::isWaiting);
+        }
+    }
+
+    //TWS callbacks, run on the message loop by processMsgs() except connection failures reported by the reader thread
+    private final class Callbacks extends DefaultEWrapper {
+
+        @Override
+        public void historicalData(int reqId, Bar candlestick) {
+            Request request = activeRequests.get(reqId);
+            if (request == null) { //cancelled, late messages dropped
+                return;
+            }
+            long timestamp = BarTime.parse(candlestick.time());
+            if (request.type == DataType.TRADES) {
+                request.buffer.append(timestamp, candlestick.open(), candlestick.high(), candlestick.low(), candlestick.close(), candlestick.volume().longValue());
+            } else { //only open kept as the price
+                request.buffer.append(timestamp, candlestick.open(), 0, 0, 0, 0);
+            }
+        }
+
+        @Override
+        public void historicalDataEnd(int reqId, String startDateStr, String endDateStr) {
+            Request request = activeRequests.remove(reqId);
+            if (request == null) {
+                return;
+            }
+            governor(request).recordSuccess();
+            endRequest(request);
+        }
+
+        /*
+        errors of a request fail the fetches waiting on it, except pacing violations (re-sent) and windows without data (answered empty)
+        @see https://interactivebrokers.github.io/tws-api/message_codes.html
+        */
+        @Override
+        public void error(int id, int errorCode, String errorMsg, String advancedOrderRejectJson) {
+            if (HistoricalDataDownloader.okErrorCodes.contains(errorCode)) { //data farm back, held requests go out on the next dispatch
+                farms.recordUp(HistoricalDataDownloader.farmName(errorMsg));
+            } else if (errorCode == 2103 || errorCode == 2105 || errorCode == 2157) { //data farm broken, most likely restarting
+                long now = System.currentTimeMillis();
+                farms.recordDown(HistoricalDataDownloader.farmName(errorMsg), now);
+                scheduleWakeup(now + farms.delay(now)); //resume on timeout if no OK notice comes
+                System.out.println("Data farm connection error " + errorCode + ", holding new requests until it is back.");
+            } else if (!activeRequests.containsKey(id)) { //not about a request in flight, e.g. a connectivity notice
+                System.out.println("TWS message " + errorCode + ": " + errorMsg);
+            } else if (errorCode == 162 && errorMsg.toLowerCase().contains("pacing violation")) { //re-sent under a new reqId after the hold
+                Request request = activeRequests.remove(id);
+                governor(request).recordViolation(System.currentTimeMillis());
+                request.buffer.clear();
+                pendingRequests.addFirst(request);
+            } else if (errorCode == 162 && errorMsg.toLowerCase().contains("no data")) { //window without bars, e.g. before the IPO or a holiday
+                endRequest(activeRequests.remove(id));
+            } else {
+                Request request = activeRequests.remove(id);
+                openRequests.remove(request.identityKey);
+                IOException err = new IOException(request.contract.symbol() + " " + request.type.name() + " " + errorCode + ": " + errorMsg);
+                for (Fetch fetch : request.fetches) {
+                    if (fetch.isWaiting()) {
+                        fail(fetch, err);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void error(Exception e) {
+            stop(new IOException(e.getMessage(), e));
+        }
+
+        @Override
+        public void error(String str) {
+            stop(new IOException(str));
+        }
+
+        @Override
+        public void connectionClosed() {
+            stop(new IOException("Connection to TWS closed."));
+        }
+
+        //connection lost, the message loop fails all fetches and stops
+        private void stop(IOException err) {
+            if (failure == null) {
+                failure = err;
+            }
+            isOpen = false;
+            readerSignal.issueSignal();
+        }
+
+    }
+
+}
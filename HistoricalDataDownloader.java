@@ -7,46 +7,70 @@ import java.util.Map.Entry;
 import java.util.regex.*;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.Temporal;
 import java.io.*;
 import java.nio.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
 
 
 public class HistoricalDataDownloader implements EWrapper {
 
-    //the singleton instance of this class
-    private static HistoricalDataDownloader downloader;
-
     //static variables
-    private static final int portNumber = 7496; //input port number here, 7696 for live/production account, 7497 for paper account
+    private static final int portNumber = 7496; //default port number, 7696 for live/production account, 7497 for paper account
     private static final DateTimeFormatter dateTimeWithTimezoneFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss VV"); //format for intraday data with timezone, VV for timezone
-    private static final DateTimeFormatter dateTimeWithoutTimezoneFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss"); //format for intraday data without timezone, VV for timezone
-    private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyyMMdd"); //format for non-intraday data 
     private static final ZoneId timezone = ZoneId.of("America/New_York"); //Java ZonedDateTime Class timezone obj, always use EST
-    private static final Set<Integer> okErrorCodes = Set.of(2104, 2106, 2158, 2108, 2148); //IB error codes representing data connection notifications rather than actual errors, shall be ignored
+    private static final String headWhatToShow = "TRADES"; //price type probed for the first bar, the legs of other types are clipped to it too
+    static final Set<Integer> okErrorCodes = Set.of(2104, 2106, 2158, 2108, 2148); //IB error codes representing data connection notifications rather than actual errors, shall be ignored
     //API connection handles
     private EClientSocket client; //socket obj to send TWS requests
     private EReaderSignal readerSignal; //sends signals to reader on message queue status
     private EReader reader; //reader obj to handle message queue, EReader extends Thread and has run()
+    private int port = portNumber; //port TWS/Gateway listens on
+    private List<SessionPool.Endpoint> endpoints = new ArrayList<>(); //connections added by addSession, more than one run as a session pool
+    private SessionPool.Endpoint endpoint; //connection of this downloader's run
+    private String sessionName; //name within a session pool, null for a single connection
+    private SessionPool.Work work; //tickers not yet taken, shared by the sessions of a pool
+    private int openJobs = 0; //tickers taken and not yet handed to the writer
     //request parameters
-    private Contract contract = new Contract(); //IBKR Contract obj used when sending requests
     private List<String> tickers; //container to hold request tickers
     private String reqEndDateTime; //date from which request is backdated
     private String reqPeriod; //from end datetime, how long to retrieve
     private String reqBarSize; //data granularity
+    private int maxConcurrentRequests = 10; //max number of requests in flight at once, IB allows 10 simultaneous requests
+    private List<WindowPlanner.Window> reqWindows; //request period split into sub-windows IB can serve in one request each
     //processing, result, other variables
     private boolean isIntraday; //flag to indicate if data request is intraday or interday
-    private boolean isBidRequestDone = false; //flag to mark end of bid request
-    private boolean isAskRequestDone = false; //flag to mark end of ask request
-    private boolean isTradesRequestDone = false; //flag to mark end of trades request
-    private LinkedList<Bid> bids = new LinkedList<>(); //container to accumulate Bid objs
-    private LinkedList<Ask> asks = new LinkedList<>(); //container to accumulate Ask objs
-    private LinkedList<Trades> trades = new LinkedList<>(); //container to accumulate Trades objs
-    private LinkedList<BidAskTrades> bidsAsksTrades = new LinkedList<>(); //container to join bids,asks,trades for intraday
+    private int nextReqId = 1; //reqId allocator, each request sent takes the next id
+    private DownloadMetrics metrics = new DownloadMetrics(); //counters and timings of the current run
+    private Map<Integer, RequestTask> activeRequests = new HashMap<>(); //registry of in-flight requests, reqId -> (ticker job, price type), used by callbacks to route messages
+    private Deque<RequestTask> pendingRequests = new ArrayDeque<>(); //requests waiting for a free slot, in ticker order
+    private Deque<TickerJob> completedJobs = new ArrayDeque<>(); //tickers with all legs received, waiting to be saved
+    private Deque<TickerJob> probeQueue = new ArrayDeque<>(); //tickers waiting for their contract or head timestamp to be requested, no legs queued yet
+    private Map<Integer, TickerJob> probes = new HashMap<>(); //contract details and head timestamp requests in flight, reqId -> ticker
+    private Deque<BarBuffer> bufferPool = new ConcurrentLinkedDeque<>(); //cleared bar buffers kept for reuse by later requests, shared with the writer thread
+    private static final int maxPooledBuffers = 64; //buffers beyond this are left to GC
+    private RequestGovernor governor; //holds back requests that would breach IB pacing limits
+    private FarmMonitor farms = new FarmMonitor(); //holds back requests while a data farm is down
+    private ExecutorService writer; //saves completed tickers off the message thread
+    private static final int maxPendingSaves = 4; //tickers handed to the writer and not yet saved; at this many no new requests are sent
+    private int pendingSaves = 0;
+    private Queue<SaveResult> finishedSaves = new ConcurrentLinkedQueue<>(); //results posted back by the writer
+    private ScheduledExecutorService wakeupTimer; //wakes the message loop when a held-back request becomes sendable
+    private long scheduledWakeup = 0; //time of the pending wakeup, 0 if none
     private Path dirPath; //path to the directory to save this data file
     private boolean withHeader; //if csv output with headers or not
+    private OutputFormat outputFormat = OutputFormat.CSV; //file format data saved in
+    private boolean isStreaming = false; //write csv rows as bars arrive rather than once a ticker is complete
+    private static final int streamChunksAhead = 4; //chunks of a streamed ticker requested beyond the one being written, bounds the bars held
+    private boolean isIncremental = false; //top up each ticker's existing file instead of fetching the whole period
+    private boolean isBidAskCombined = false; //intraday bid and ask from one BID_ASK request per chunk instead of a BID and an ASK request
+    private List<String> derivedBarSizes = List.of(); //coarser bar sizes written from each saved file, see BarResampler
+    private ResponseCache cache; //completed responses of past windows on disk, null unless enabled
+    private RunJournal journal; //tickers finished by this run or an earlier attempt of it, null unless enabled
+    private HeadTimestampCache headTimestamps; //first available bar per symbol, null unless probing enabled
+    private ContractCache contracts; //conId per symbol, null unless enabled
 
     /*
     Constructor, setting instance variables to the request parameters
@@ -58,6 +82,8 @@ public class HistoricalDataDownloader implements EWrapper {
         this.reqBarSize = reqBarSize;
         this.dirPath = Paths.get(dirPath);
         this.isIntraday = Arrays.stream(new String[]{"sec", "min", "hour"}).anyMatch(reqBarSize::contains) ? true : false; //flag raised for intraday request
+        this.governor = this.newGovernor();
+        this.reqWindows = WindowPlanner.plan(reqEndDateTime, reqPeriod, reqBarSize); //long intraday periods fetched as chunks, merged on completion
     }
 
     /*
@@ -70,13 +96,15 @@ public class HistoricalDataDownloader implements EWrapper {
     @param String dataSize: "<digit> SizeString", valid strings are <1/5/10/15/30> secs, <1/2/3/5/10/15/20/30> mins, <1/2/3/4/8> hours, <1> day/week/month; note 1 min and 1 hour (no s)
     @param String path: path to the directory where file will be saved
     @param bool withHeader: true to write headers to csv data, false without
+    @param OutputFormat outputFormat: CSV text, or BINARY/BINARY_DELTA columnar files (see BarFile)
     */
-    public static HistoricalDataDownloader getDownloader(List<String> tickers, int endYear, int endMonth, int endDay, String reqPeriod, String reqBarSize, String dirPath, boolean withHeader) throws IllegalArgumentException {
+    public static HistoricalDataDownloader getDownloader(List<String> tickers, int endYear, int endMonth, int endDay, String reqPeriod, String reqBarSize, String dirPath, boolean withHeader, OutputFormat outputFormat) throws IllegalArgumentException {
         String reqEndDateTime = makeDateTime(endYear, endMonth, endDay); //convert to valid datetime format defined
        
-        downloader = new HistoricalDataDownloader(tickers, reqEndDateTime, reqPeriod, reqBarSize, dirPath);
+        HistoricalDataDownloader downloader = new HistoricalDataDownloader(tickers, reqEndDateTime, reqPeriod, reqBarSize, dirPath);
     
         downloader.withHeader = withHeader ? true : false;
+        downloader.outputFormat = outputFormat;
 
         if (!Files.exists(Paths.get(dirPath))) {
             throw new IllegalArgumentException("Input path does not exist.");
@@ -90,6 +118,10 @@ public class HistoricalDataDownloader implements EWrapper {
         
         return downloader;
     }
+    //overloaded version with default CSV output
+    public static HistoricalDataDownloader getDownloader(List<String> tickers, int endYear, int endMonth, int endDay, String reqPeriod, String reqBarSize, String dirPath, boolean withHeader) throws IllegalArgumentException {
+        return getDownloader(tickers, endYear, endMonth, endDay, reqPeriod, reqBarSize, dirPath, withHeader, OutputFormat.CSV);
+    }
     //overloaded version with optional withHeader=true
     public static HistoricalDataDownloader getDownloader(List<String> tickers, int endYear, int endMonth, int endDay, String reqPeriod, String reqBarSize, String dirPath) throws IllegalArgumentException {
         return getDownloader(tickers, endYear, endMonth, endDay, reqPeriod, reqBarSize, dirPath, true);
@@ -129,7 +161,7 @@ public class HistoricalDataDownloader implements EWrapper {
             System.exit(0);
         }
 
-        downloader = getDownloader(ticker, Integer.parseInt(year), Integer.parseInt(month), Integer.parseInt(day), period, barSize, dirPath); //construct download instance 
+        HistoricalDataDownloader downloader = getDownloader(ticker, Integer.parseInt(year), Integer.parseInt(month), Integer.parseInt(day), period, barSize, dirPath); //construct download instance 
         try {
             downloader.start();
         } catch (Exception err) {
@@ -142,114 +174,985 @@ public class HistoricalDataDownloader implements EWrapper {
         
     }
 
+    /*
+    set the max number of requests kept in flight at once across different tickers
+    @param int maxConcurrentRequests: between 1 and 10 (IB limit on simultaneous historical requests)
+    */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) throws IllegalArgumentException {
+        if (maxConcurrentRequests < 1 || maxConcurrentRequests > 10) {
+            throw new IllegalArgumentException("Concurrent requests must be between 1 and 10.");
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /*
+    @param int port: port TWS or IB Gateway listens on, 7496 by default
+    */
+    public void setPort(int port) throws IllegalArgumentException {
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port number.");
+        }
+        this.port = port;
+    }
+
+    /*
+    download over several TWS/Gateway connections at once, each with its own socket and reader; once more than one is added start() runs them as a session pool
+    tickers are shared out as sessions have room for them, sessions on the same host and port share pacing limits
+    @param String host: address TWS or IB Gateway runs on
+    @param int clientId: unique among the sessions of the same TWS or Gateway
+    */
+    public void addSession(String host, int port, int clientId) throws IllegalArgumentException {
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port number.");
+        }
+        if (this.endpoints.stream().anyMatch(endpoint -> endpoint.host().equals(host) && endpoint.port() == port && endpoint.clientId() == clientId)) {
+            throw new IllegalArgumentException("Client id " + clientId + " already used for " + host + ":" + port + ".");
+        }
+        this.endpoints.add(new SessionPool.Endpoint(host, port, clientId));
+    }
+
+    //metrics of the current or last run
+    DownloadMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /*
+    streaming mode: a ticker's csv file is written while its requests arrive, chunk by chunk oldest first, each row as soon as all legs have passed its timestamp
+    bars held in memory are then bounded by a few chunks per ticker, whatever the period; binary formats need all rows up front and are not streamed
+    @param boolean isStreaming: true to stream rows to disk
+    */
+    public void setStreaming(boolean isStreaming) throws IllegalArgumentException {
+        if (isStreaming && this.outputFormat != OutputFormat.CSV) {
+            throw new IllegalArgumentException("Streaming is only available for CSV output.");
+        }
+        this.isStreaming = isStreaming;
+    }
+
+    /*
+    incremental mode: for a ticker with a data file of this bar size and format in the directory, request only from the file's last date up to the end date
+    the existing rows before that date and the fetched tail are saved as one file replacing the old one; tickers without a file get the whole period
+    @param boolean isIncremental: true to top up existing files
+    */
+    public void setIncremental(boolean isIncremental) {
+        this.isIncremental = isIncremental;
+    }
+
+    /*
+    intraday bid and ask from one BID_ASK request per chunk instead of separate BID and ASK requests, so two requests and reqIds per chunk instead of three
+    IB counts a BID_ASK request twice towards its pacing limits, so the pacing budget used is the same as with separate requests
+    BID_ASK bars carry the time-average bid and ask over the bar, where BID and ASK bars give the bid and ask at the bar's open, so values differ slightly; columns saved are the same
+    @param boolean isBidAskCombined: true for one BID_ASK request
+    */
+    public void setBidAskCombined(boolean isBidAskCombined) {
+        this.isBidAskCombined = isBidAskCombined;
+    }
+
+    /*
+    serve requests seen before from a disk cache instead of TWS; responses of windows ending in the past are stored as they complete
+    @param String cacheDirPath: directory for the cache, created if missing; may be shared by runs and downloaders
+    @param long maxBytes: cache size limit, least recently used responses are evicted beyond it
+    */
+    public void enableCache(String cacheDirPath, long maxBytes) throws IOException, IllegalArgumentException {
+        this.cache = new ResponseCache(Paths.get(cacheDirPath), maxBytes);
+    }
+
+    /*
+    also write coarser bar sizes for each ticker saved, derived from its file rather than requested from TWS (see BarResampler.plan for which sizes to request)
+    @param List<String> barSizes: whole multiples of the request bar size up to 1 day, such as "5 mins" and "1 hour" for a 1 min request
+    */
+    public void setDerivedBarSizes(List<String> barSizes) throws IllegalArgumentException {
+        for (String barSize : barSizes) {
+            if (!BarResampler.canDerive(this.reqBarSize, barSize)) {
+                throw new IllegalArgumentException("Cannot derive " + barSize + " bars from " + this.reqBarSize + " bars.");
+            }
+        }
+        this.derivedBarSizes = List.copyOf(barSizes);
+    }
+
+    /*
+    probe each ticker's first available bar with reqHeadTimestamp before requesting it, dropping the windows ending before it and shortening the one it falls in
+    recent IPOs then send no requests that can only come back without data; the first bars are kept on disk and reused by later runs (see HeadTimestampCache)
+    @param String cacheDirPath: directory for the head timestamps, created if missing; may be shared by runs and downloaders
+    */
+    public void enableHeadTimestamps(String cacheDirPath) throws IOException {
+        this.headTimestamps = new HeadTimestampCache(Paths.get(cacheDirPath));
+    }
+
+    /*
+    resolve each symbol with reqContractDetails once and request it by conId, instead of TWS resolving the bare symbol on every request
+    conIds are kept on disk and resolved again after 7 days, keeping earlier conIds of a symbol (see ContractCache); a symbol unknown to IB or matching several contracts is skipped before any data request
+    @param String cacheDirPath: directory for the contracts, created if missing; may be shared by runs and downloaders
+    */
+    public void enableContractCache(String cacheDirPath) throws IOException {
+        this.contracts = new ContractCache(Paths.get(cacheDirPath));
+    }
+
+    /*
+    keep a journal of finished tickers in the output directory, so that start() after a crash or on a new downloader with the same request skips them
+    one journal file per bar size and output format, so several bar sizes can be downloaded into one directory; a journal of a different end date or period is started over
+    */
+    public void enableJournal() throws IOException {
+        String runKey = this.reqEndDateTime + "|" + this.reqPeriod + "|" + this.reqBarSize + "|" + this.outputFormat;
+        this.journal = new RunJournal(this.dirPath, RunJournal.fileName(this.reqBarSize, this.outputFormat.name()), runKey);
+    }
+
     /*
     main method encapsulating all operations from connect and request to save and disconnect
+    requests of different tickers are kept in flight together, up to maxConcurrentRequests, and a ticker is saved as soon as all its requests are done
+    with a journal enabled, tickers already journaled are not requested again
+    with sessions added, the tickers are downloaded over all of them at once (see SessionPool)
     */
     public void start() throws IOException, RuntimeException, IllegalArgumentException {
 
-        int loopSize = this.tickers.size(); //number of times to loop
-        int currentLoopCount = 1;
-
-        this.openConnection(portNumber); //connect to TWS server
-        System.out.println("Connection to TWS established.");
-
-        for (String ticker : this.tickers) { //loop through each ticker in tickers list
-
-            this.setContract(ticker); //set contract to ticker in current loop
-            System.out.print("(" + currentLoopCount + "/" + loopSize + ") " + "Requesting data for " + ticker + "...");
-            currentLoopCount++;
-            
-            try { //submit request(s) to server, with predetermined (arbitrarily) IDs for each type
-
-                this.bids.clear(); //reset
-                this.asks.clear();
-                this.trades.clear();
-                this.bidsAsksTrades.clear();
-
-                if (this.isIntraday) { //intraday case, request bid/ask/trades
-                    this.request(PriceDataType.TRADES, 1); 
-                    this.request(PriceDataType.BID, 2);
-                    this.request(PriceDataType.ASK, 3);
-                } else { //interday case, request trades only
-                    this.request(PriceDataType.TRADES, 1); 
-                    this.isBidRequestDone = true; //no bid and ask requests
-                    this.isAskRequestDone = true; //no bid and ask requests
+        List<String> tickers = this.tickers;
+        if (this.journal != null) {
+            tickers = this.tickers.stream().filter(ticker -> !this.journal.isDone(ticker)).collect(Collectors.toList());
+            if (tickers.size() < this.tickers.size()) {
+                System.out.println((this.tickers.size() - tickers.size()) + " tickers already done in an earlier run, resuming with " + tickers.size() + ".");
+            }
+        }
+
+        if (this.endpoints.size() > 1) {
+            SessionPool pool = new SessionPool(this, this.endpoints);
+            try {
+                pool.start(tickers);
+            } finally {
+                this.metrics = pool.getMetrics();
+                this.writeSummary();
+            }
+        } else {
+            this.endpoint = this.endpoints.isEmpty() ? new SessionPool.Endpoint("127.0.0.1", this.port, 0) : this.endpoints.get(0);
+            this.work = new SessionPool.Work(tickers, false);
+            try {
+                this.runSession();
+            } finally {
+                this.writeSummary();
+            }
+            System.out.println(this.governor);
+        }
+        if (this.cache != null) {
+            System.out.println(this.cache);
+        }
+        System.out.println(this.metrics);
+
+    }
+
+    /*
+    connect, then request and save tickers taken from the work queue until none are left, and disconnect
+    in a session pool, a failing session gives back the tickers it has not handed to its writer so the other sessions take them
+    */
+    void runSession() throws IOException, RuntimeException {
+
+        this.openConnection(this.endpoint); //connect to TWS server
+        System.out.println("Connection to TWS established" + (this.sessionName != null ? " (" + this.sessionName + ", " + this.endpoint.host() + ":" + this.endpoint.port() + ")." : "."));
+
+        this.activeRequests.clear(); //reset
+        this.releasePending(task -> true); //left over from a failed attempt
+        this.pendingRequests.clear();
+        this.completedJobs.clear();
+        this.probeQueue.clear();
+        this.probes.clear();
+        this.finishedSaves.clear();
+        this.pendingSaves = 0;
+        this.openJobs = 0;
+        this.farms = new FarmMonitor();
+        this.writer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "data-writer"));
+        this.metrics = new DownloadMetrics();
+        this.metrics.register(this.sessionName); //live view over JMX while running
+
+        try {
+            this.runRequests();
+        } catch (IOException | RuntimeException err) {
+            if (this.sessionName != null) {
+                this.giveBackJobs(false);
+            }
+            throw err;
+        } finally { //also on errors, so a retry can connect again
+            this.closeConnection();
+            this.writer.shutdown(); //saves in progress are finished and journaled, so a retry does not fetch them again
+            try {
+                this.writer.awaitTermination(10, TimeUnit.MINUTES);
+            } catch (InterruptedException err) {
+                Thread.currentThread().interrupt();
+            }
+            this.journalLateSaves();
+            this.metrics.end();
+            this.metrics.unregister();
+        }
+
+    }
+
+    //journal the saves the writer finished after the message loop stopped on an error
+    private void journalLateSaves() {
+        SaveResult result;
+        while ((result = this.finishedSaves.poll()) != null) {
+            if (this.journal == null || result.error() != null) {
+                continue;
+            }
+            try {
+                if (result.filePath() == null) {
+                    this.journal.recordSkipped(result.job().contract.symbol());
+                } else {
+                    this.journal.recordSaved(result.job().contract.symbol(), result.filePath());
                 }
+            } catch (IOException err) {
+                ; //fetched again by the next run
+            }
+        }
+    }
 
-                while ( !this.isBidRequestDone || !this.isAskRequestDone || !this.isTradesRequestDone  ) { //loop until request(s) completed
+    private void writeSummary() {
+        try {
+            this.metrics.writeSummary(this.dirPath);
+        } catch (IOException err) {
+            System.out.println("Unable to write " + DownloadMetrics.fileName + ": " + err.getMessage());
+        }
+    }
 
-                    this.readerSignal.waitForSignal();
-                    
-                    try {
-                        this.reader.processMsgs(); //trigger callback
-                    } catch (IOException err) {
-                        throw new IOException(err);
-                    }
+    //a downloader for one session of a pool, with this downloader's request and settings
+    HistoricalDataDownloader forSession(SessionPool.Endpoint endpoint, String sessionName, SessionPool.Work work, RequestGovernor governor) {
+        HistoricalDataDownloader session = new HistoricalDataDownloader(this.tickers, this.reqEndDateTime, this.reqPeriod, this.reqBarSize, this.dirPath.toString());
+        session.withHeader = this.withHeader;
+        session.outputFormat = this.outputFormat;
+        session.maxConcurrentRequests = this.maxConcurrentRequests;
+        session.isStreaming = this.isStreaming;
+        session.isIncremental = this.isIncremental;
+        session.isBidAskCombined = this.isBidAskCombined;
+        session.derivedBarSizes = this.derivedBarSizes;
+        session.cache = this.cache; //shared, thread safe
+        session.journal = this.journal;
+        session.headTimestamps = this.headTimestamps;
+        session.contracts = this.contracts;
+        session.endpoint = endpoint;
+        session.sessionName = sessionName;
+        session.work = work;
+        session.governor = governor;
+        return session;
+    }
 
-                } //all request messages received and processed
-                this.isBidRequestDone = false; //reset
-                this.isAskRequestDone = false;
-                this.isTradesRequestDone = false;
+    RequestGovernor newGovernor() {
+        return new RequestGovernor(this.reqBarSize.contains("sec")); //all second bar sizes are 30 secs or less, strict pacing
+    }
+
+    //take tickers and queue their requests, then send, receive and save until all are done
+    private void runRequests() throws IOException {
+
+        HistoricalDataStore store = this.isIncremental ? new HistoricalDataStore(this.dirPath.toString()) : null; //existing files to top up
+
+        this.queueTickers(store);
+        this.dispatchRequests(); //fill up the free slots
+
+        while ( !this.activeRequests.isEmpty() || !this.pendingRequests.isEmpty() || !this.probeQueue.isEmpty() || !this.probes.isEmpty() || !this.completedJobs.isEmpty() || this.pendingSaves > 0 ) { //loop until all requests completed and saved
+
+            if (this.completedJobs.isEmpty() || this.pendingSaves >= maxPendingSaves) { //nothing to hand to the writer, wait for messages or a finished save
+                this.readerSignal.waitForSignal();
                 
+                try {
+                    this.reader.processMsgs(); //trigger callback
+                } catch (IOException err) {
+                    throw new IOException(err);
+                }
+            }
+
+            while (!this.completedJobs.isEmpty() && this.pendingSaves < maxPendingSaves) { //hand the tickers whose requests are all received to the writer
+                TickerJob job = this.completedJobs.remove();
+                this.pendingSaves++;
+                this.openJobs--;
+                this.writer.execute(() -> {
+                    this.finishedSaves.add(this.saveJob(job));
+                    this.readerSignal.issueSignal(); //wake the message loop to pick up the result
+                });
+            }
 
-            } catch (NoDataException err) {
-                System.out.println("data for " + ticker + " unavailable, skipping it.");
+            SaveResult result;
+            while ((result = this.finishedSaves.poll()) != null) { //saves the writer has finished
+                this.pendingSaves--;
+                if (result.error() != null) {
+                    throw new IOException(result.error().getMessage(), result.error());
+                }
+                if (result.filePath() == null) { //every chunk came back empty
+                    this.metrics.recordSkipped();
+                    System.out.println(this.work.progress() + " Data for " + result.job().ticker + " unavailable, skipping it.");
+                    this.journalSkipped(result.job().contract.symbol());
+                    continue;
+                }
+                if (this.journal != null) { //only once the file is complete
+                    this.journal.recordSaved(result.job().contract.symbol(), result.filePath());
+                }
+                System.out.println(this.work.progress() + " Data for " + result.job().ticker + " saved.");
+            }
+
+            this.queueTickers(store); //more tickers as the ones in progress finish
+            this.dispatchRequests(); //send queued requests into the slots freed up
+
+        }
+
+    }
+
+    /*
+    take tickers off the work queue and queue up their requests, to be sent as slots free up
+    tickers are taken only while fewer than twice maxConcurrentRequests are in progress, so that in a session pool the rest stay for whichever session has room
+    */
+    private void queueTickers(HistoricalDataStore store) throws IOException {
+
+        while (this.openJobs < this.maxConcurrentRequests * 2) {
+
+            if (this.sessionName != null && this.farms.isDown(System.currentTimeMillis())) { //left to sessions whose farms are up
+                return;
+            }
+
+            String ticker = this.work.take();
+            if (ticker == null) {
+                return;
+            }
+
+            List<WindowPlanner.Window> windows = this.reqWindows;
+            HistoricalDataStore.DataFile existingFile = store != null ? store.latest(ticker, this.reqBarSize, this.outputFormat != OutputFormat.CSV) : null;
+            if (existingFile != null) { //only the tail from the file's last date
+                String tailPeriod = WindowPlanner.tailPeriod(this.reqEndDateTime, existingFile.lastDate());
+                if (tailPeriod == null) {
+                    System.out.println("Data for " + ticker.trim().toUpperCase() + " already up to date, skipping it.");
+                    this.work.skipped();
+                    continue;
+                }
+                windows = WindowPlanner.plan(this.reqEndDateTime, tailPeriod, this.reqBarSize);
+            }
+
+            TickerJob job = new TickerJob(ticker, makeContract(ticker), windows);
+            job.existingFile = existingFile;
+            this.openJobs++;
+
+            this.prepareJob(job);
+
+        }
+
+    }
+
+    //queue a ticker's legs once its contract and first bar are known from the caches, or queue the probe for the one missing
+    private void prepareJob(TickerJob job) {
+        long now = Instant.now().getEpochSecond();
+        if (this.contracts != null && !job.isResolved) {
+            Contract contract = this.contracts.get(job.contract.symbol(), now);
+            if (contract == null) { //legs queued once resolved
+                this.probeQueue.add(job);
+                return;
+            }
+            job.contract = contract;
+            job.isResolved = true;
+        }
+        if (this.headTimestamps != null) { //windows before the first bar dropped
+            Long head = this.headTimestamps.get(job.contract.symbol(), headWhatToShow, now);
+            if (head == null) { //legs queued once probed
+                this.probeQueue.add(job);
+                return;
+            }
+            job.windows = WindowPlanner.clip(job.windows, Instant.ofEpochSecond(head).atZone(timezone));
+        }
+        this.queueLegs(job);
+    }
+
+    //contract details still to be received before the ticker's head timestamp or legs
+    private boolean isResolving(TickerJob job) {
+        return this.contracts != null && !job.isResolved;
+    }
+
+    //drop a ticker before any data request, journaled so a resumed run does not ask for it again
+    private void skipJob(TickerJob job, String reason) {
+        System.out.println(this.work.progress() + " Data for " + job.ticker + " " + reason + ", skipping it.");
+        this.openJobs--;
+        this.metrics.recordSkipped();
+        this.journalSkipped(job.contract.symbol());
+    }
+
+    //queue the requests of a ticker, one set of legs per window; a ticker without windows left has no data in the period
+    private void queueLegs(TickerJob job) {
+
+        List<WindowPlanner.Window> windows = job.windows;
+        if (windows.isEmpty()) { //first bar after the request end
+            this.skipJob(job, "starts after the request period");
+            return;
+        }
+
+        job.chunkCount = windows.size();
+        for (int chunk = 0; chunk < windows.size(); chunk++) { //one set of legs per chunk, oldest first, chunks of a ticker run concurrently
+            WindowPlanner.Window window = windows.get(windows.size() - 1 - chunk); //planned newest first
+            if (this.isIntraday && this.isBidAskCombined) { //intraday case, request trades and bid/ask together
+                job.addLeg(this.pendingRequests, PriceDataType.TRADES, window, chunk);
+                job.addLeg(this.pendingRequests, PriceDataType.BID_ASK, window, chunk);
+            } else if (this.isIntraday) { //intraday case, request bid/ask/trades
+                job.addLeg(this.pendingRequests, PriceDataType.TRADES, window, chunk);
+                job.addLeg(this.pendingRequests, PriceDataType.BID, window, chunk);
+                job.addLeg(this.pendingRequests, PriceDataType.ASK, window, chunk);
+            } else { //interday case, request trades only
+                job.addLeg(this.pendingRequests, PriceDataType.TRADES, window, chunk);
+            }
+        }
+
+    }
+
+    /*
+    put tickers back on the work queue for other sessions, in the order taken
+    @param boolean isUnstartedOnly: only tickers none of whose requests were sent yet (on a data farm outage), otherwise all not handed to the writer (on failure)
+    */
+    private void giveBackJobs(boolean isUnstartedOnly) {
+        LinkedHashSet<TickerJob> jobs = new LinkedHashSet<>();
+        for (RequestTask task : this.pendingRequests) {
+            jobs.add(task.job);
+        }
+        jobs.addAll(this.probeQueue);
+        if (!isUnstartedOnly) {
+            for (RequestTask task : this.activeRequests.values()) {
+                jobs.add(task.job);
+            }
+            jobs.addAll(this.probes.values());
+            jobs.addAll(this.completedJobs);
+            this.completedJobs.clear();
+        }
+        List<TickerJob> givenBack = new ArrayList<>();
+        for (TickerJob job : jobs) {
+            if (isUnstartedOnly && (job.remainingLegs < job.legs.size() || job.legs.stream().anyMatch(task -> task.reqId != 0) || this.probes.containsValue(job))) { //under way here
                 continue;
-            } catch (RuntimeException err) {
-                throw new RuntimeException(err.getMessage());
             }
-           
-            System.out.print("...data received, proceeding to save...");
+            this.abandonJob(job);
+            this.openJobs--;
+            givenBack.add(job);
+        }
+        for (int i = givenBack.size() - 1; i >= 0; i--) { //front of the queue, first taken first
+            this.work.giveBack(givenBack.get(i).ticker);
+        }
+        if (!givenBack.isEmpty()) {
+            System.out.println(givenBack.size() + " tickers of " + this.sessionName + " handed back to the other sessions.");
+        }
+    }
 
-            try {
-                this.saveData(); //save accumulated data to file
-                System.out.println("...saved.");
-            } catch (IOException err) {
-                throw new IOException(err);
+    /*
+    merge and save a ticker whose requests are all done, run on the writer thread; buffers go back to the pool after
+    the message thread no longer touches the job, and the buffer pool is concurrent
+    @return the file saved, null if no trades at all, or the error
+    */
+    private SaveResult saveJob(TickerJob job) {
+        try {
+            long startedAt = System.nanoTime();
+            Path filePath = null;
+            if (this.isStreaming) {
+                filePath = this.finishStream(job); //rows already written
+            } else {
+                this.mergeChunks(job); //chunk buffers into one chronological series per price type
+                if (job.existingFile != null) {
+                    this.mergeExisting(job); //existing rows before the fetched tail
+                }
+                if (!job.trades.isEmpty()) {
+                    filePath = this.saveData(job); //save accumulated data to file
+                }
+            }
+            this.releaseBuffers(job);
+            if (filePath != null) {
+                for (String barSize : this.derivedBarSizes) { //before the ticker is journaled, so a resumed run has them too
+                    this.deriveFile(job, filePath, barSize);
+                }
+                this.metrics.recordSaved(System.nanoTime() - startedAt, Files.size(filePath));
+            }
+            return new SaveResult(job, filePath, null);
+        } catch (IOException | RuntimeException err) {
+            return new SaveResult(job, null, err);
+        }
+    }
+
+    //derive a coarser bar size from a saved file; a topped-up file replaces the derived file of the file it superseded, as commitFile() does for the source
+    private void deriveFile(TickerJob job, Path filePath, String barSize) throws IOException {
+        HistoricalDataStore.DataFile previous = job.existingFile != null ? new HistoricalDataStore(this.dirPath.toString()).latest(job.contract.symbol(), barSize, this.outputFormat != OutputFormat.CSV) : null;
+        Path derivedPath = BarResampler.resample(filePath, barSize, this.withHeader, this.outputFormat);
+        if (previous != null && derivedPath != null && !previous.path().equals(derivedPath)) {
+            Files.deleteIfExists(previous.path());
+        }
+    }
+
+    //journal a ticker without data, so a resumed run does not ask for it again
+    private void journalSkipped(String ticker) throws UncheckedIOException {
+        if (this.journal == null) {
+            return;
+        }
+        try {
+            this.journal.recordSkipped(ticker);
+        } catch (IOException err) {
+            throw new UncheckedIOException(err);
+        }
+    }
+
+    /*
+    send pending requests until maxConcurrentRequests are in flight or none left, skipping those the pacing governor holds back
+    requests found in the cache are completed on the spot, without a slot or pacing budget; only those while a data farm is down
+    nothing is sent while the writer has maxPendingSaves tickers to save, bounding the data held in memory
+    */
+    private void dispatchRequests() {
+
+        if (this.pendingSaves >= maxPendingSaves) { //writer behind, no more data until it catches up
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long nextTry = Long.MAX_VALUE; //shortest wait among held-back requests
+        long farmWait = this.farms.delay(now); //until the farm is back or its timeout, the OK notice wakes the loop sooner
+        this.sendProbes(farmWait);
+        if (farmWait > 0 && !this.probeQueue.isEmpty()) {
+            nextTry = farmWait;
+        }
+        Iterator<RequestTask> pending = this.pendingRequests.iterator();
+
+        while ( this.activeRequests.size() + this.probes.size() < this.maxConcurrentRequests && pending.hasNext() ) {
+
+            RequestTask task = pending.next();
+            if (this.isStreaming && task.chunk >= task.job.streamChunk + streamChunksAhead) { //sent once the stream catches up
+                continue;
+            }
+            if (this.cache != null && !task.isCacheChecked) { //looked up once, not again on every pass while held back
+                task.isCacheChecked = true;
+                if (this.serveFromCache(task)) {
+                    pending.remove();
+                    continue;
+                }
+            }
+            if (farmWait > 0) {
+                nextTry = Math.min(nextTry, farmWait);
+                continue;
+            }
+
+            long globalWait = this.governor.globalDelay(now);
+            if (globalWait > 0) { //no request can be sent at all
+                nextTry = globalWait;
+                break;
+            }
+
+            long wait = this.governor.tryAcquire(this.pacingKey(task), this.identityKey(task), pacingWeight(task), now);
+            if (wait > 0) { //held back, other tickers may still go
+                nextTry = Math.min(nextTry, wait);
+                continue;
             }
 
+            pending.remove();
+            this.takeBuffers(task); //none taken yet unless re-sent
+            task.reqId = this.nextReqId++; //allocate a fresh id, never reused within a session
+            this.activeRequests.put(task.reqId, task);
+            this.request(task);
+
         }
 
-        this.closeConnection(); 
+        if (nextTry != Long.MAX_VALUE) {
+            this.scheduleWakeup(now + nextTry);
+        }
+        this.metrics.recordPacing(this.governor.getViolationsAvoided(), this.governor.getTotalWaitMillis());
 
     }
 
-    private void saveData() throws IOException {
+    //drop pending requests, those held back by the pacing governor no longer counted as queued there
+    private void releasePending(Predicate<RequestTask> filter) {
+        Iterator<RequestTask> pending = this.pendingRequests.iterator();
+        while (pending.hasNext()) {
+            RequestTask task = pending.next();
+            if (filter.test(task)) {
+                this.governor.release(this.identityKey(task));
+                pending.remove();
+            }
+        }
+    }
+
+    //request the contract or first bar of tickers waiting for it, ahead of data requests as their legs are not queued yet; probes take request slots too
+    private void sendProbes(long farmWait) {
+        while (farmWait == 0 && !this.probeQueue.isEmpty() && this.activeRequests.size() + this.probes.size() < this.maxConcurrentRequests) {
+            TickerJob job = this.probeQueue.remove();
+            int reqId = this.nextReqId++;
+            this.probes.put(reqId, job);
+            if (this.isResolving(job)) {
+                this.client.reqContractDetails(reqId, job.contract);
+            } else {
+                this.client.reqHeadTimestamp(reqId, job.contract, headWhatToShow, 1, 2); //regular trading hours as the data requests, answered in epoch seconds
+            }
+        }
+    }
+
+    //complete a request from the cache if stored there, the leg then counts as received; on a miss the buffers go back to the pool until the request is sent
+    private boolean serveFromCache(RequestTask task) {
+        this.takeBuffers(task);
+        if (!this.cache.get(this.identityKey(task), task.buffer)) {
+            this.releaseBuffers(task);
+            return false;
+        }
+        if (task.askBuffer != null && !this.cache.get(this.identityKey(task) + "|ask", task.askBuffer)) { //ask half evicted, requested again
+            this.releaseBuffers(task);
+            return false;
+        }
+        this.completeLeg(task);
+        return true;
+    }
+
+    //responses of windows ending before now are final and can be cached
+    private boolean isCacheable(RequestTask task) {
+        return ZonedDateTime.parse(task.window.endDateTime(), dateTimeWithTimezoneFormat).isBefore(ZonedDateTime.now(timezone));
+    }
+
+    //store a completed response; a failure only costs the cache entry
+    private void storeInCache(RequestTask task) {
+        if (this.cache == null || !this.isCacheable(task)) {
+            return;
+        }
+        try {
+            this.cache.put(this.identityKey(task), task.buffer);
+            if (task.askBuffer != null) { //ask half of a BID_ASK response
+                this.cache.put(this.identityKey(task) + "|ask", task.askBuffer);
+            }
+        } catch (IOException err) {
+            System.out.println("Could not cache response for " + task.job.ticker + ": " + err.getMessage());
+        }
+    }
+
+    //have the message loop woken at the given time, as no TWS message may arrive to wake it
+    private void scheduleWakeup(long wakeupTime) {
+        if (this.scheduledWakeup != 0 && this.scheduledWakeup <= wakeupTime && this.scheduledWakeup > System.currentTimeMillis()) { //an earlier wakeup already pending
+            return;
+        }
+        this.scheduledWakeup = wakeupTime;
+        this.wakeupTimer.schedule(() -> this.readerSignal.issueSignal(), Math.max(wakeupTime - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+    }
+
+    //requests for the same contract, bar size and price type count towards the same pacing limit
+    private String pacingKey(RequestTask task) {
+        return task.job.contract.symbol() + "|" + this.reqBarSize + "|" + task.type.name();
+    }
+
+    //requests IB counts a request as towards its pacing limits, a BID_ASK request counts twice
+    private static int pacingWeight(RequestTask task) {
+        return task.type == PriceDataType.BID_ASK ? 2 : 1;
+    }
+
+    //requests with the same key and window are identical requests to IB
+    private String identityKey(RequestTask task) {
+        return this.pacingKey(task) + "|" + task.window.endDateTime() + "|" + task.window.duration();
+    }
+
+    //a cleared buffer from the pool, or a new one if none left
+    private BarBuffer takeBuffer() {
+        BarBuffer buffer = this.bufferPool.poll();
+        return buffer != null ? buffer : new BarBuffer();
+    }
+
+    private void releaseBuffer(BarBuffer buffer) {
+        if (buffer != null && this.bufferPool.size() < maxPooledBuffers) {
+            buffer.clear();
+            this.bufferPool.add(buffer);
+        }
+    }
+
+    //buffers a request receives into, a BID_ASK request has a second one for the ask
+    private void takeBuffers(RequestTask task) {
+        if (task.buffer == null) {
+            task.buffer = this.takeBuffer();
+        }
+        if (task.type == PriceDataType.BID_ASK && task.askBuffer == null) {
+            task.askBuffer = this.takeBuffer();
+        }
+    }
+
+    private void releaseBuffers(RequestTask task) {
+        this.releaseBuffer(task.buffer);
+        this.releaseBuffer(task.askBuffer);
+        task.buffer = null;
+        task.askBuffer = null;
+    }
+
+    //return all buffers of a ticker to the pool once it is saved or dropped
+    private void releaseBuffers(TickerJob job) {
+        for (RequestTask task : job.legs) {
+            if (task.buffer != job.bids && task.buffer != job.asks && task.buffer != job.trades) { //not reused as the merged series
+                this.releaseBuffer(task.buffer);
+            }
+            if (task.askBuffer != job.asks) {
+                this.releaseBuffer(task.askBuffer);
+            }
+            task.buffer = null;
+            task.askBuffer = null;
+        }
+        this.releaseBuffer(job.bids);
+        this.releaseBuffer(job.asks);
+        this.releaseBuffer(job.trades);
+        job.bids = null;
+        job.asks = null;
+        job.trades = null;
+    }
+
+    /*
+    gather the request buffers of a ticker into one series per price type
+    chunks are appended oldest first, dropping rows where a chunk overlaps the previous one, so a single linear pass; a single chunk is used as is
+    */
+    private void mergeChunks(TickerJob job) {
+        job.trades = this.mergeLegs(job, PriceDataType.TRADES);
+        job.bids = this.mergeLegs(job, PriceDataType.BID);
+        job.asks = this.mergeLegs(job, PriceDataType.ASK);
+    }
+
+    /*
+    put the rows of the ticker's existing file dated before the fetched tail in front of the merged series, so the ticker is saved as one file
+    the tail starts on the file's last date, so that date is taken from the new data only
+    */
+    private void mergeExisting(TickerJob job) throws IOException {
+        BarBuffer bids = this.takeBuffer();
+        BarBuffer asks = this.takeBuffer();
+        BarBuffer trades = this.takeBuffer();
+        try (BarColumns existing = HistoricalDataStore.openFile(job.existingFile)) {
+            int endRow = HistoricalDataStore.lowerBound(existing, job.existingFile.lastDate() * 1000000L);
+            for (int row = 0; row < endRow; row++) {
+                long timestamp = existing.time(row);
+                if (existing.isTradesNull(row)) {
+                    trades.appendNull(timestamp);
+                } else {
+                    trades.append(timestamp, existing.open(row), existing.high(row), existing.low(row), existing.close(row), existing.volume(row));
+                }
+                if (this.isIntraday) { //bid and ask kept as open price, as received
+                    if (existing.isBidNull(row)) {
+                        bids.appendNull(timestamp);
+                    } else {
+                        bids.append(timestamp, existing.bid(row), 0, 0, 0, 0);
+                    }
+                    if (existing.isAskNull(row)) {
+                        asks.appendNull(timestamp);
+                    } else {
+                        asks.append(timestamp, existing.ask(row), 0, 0, 0, 0);
+                    }
+                }
+            }
+        } catch (IOException err) {
+            throw new IOException("Error occurred when reading existing data file " + job.existingFile.path().getFileName());
+        }
+        job.trades = this.prependSeries(job, trades, job.trades);
+        job.bids = this.prependSeries(job, bids, job.bids);
+        job.asks = this.prependSeries(job, asks, job.asks);
+    }
+
+    //existing rows followed by the fetched series; the fetched series goes back to the pool unless a request still holds it
+    private BarBuffer prependSeries(TickerJob job, BarBuffer existing, BarBuffer fetched) {
+        if (fetched == null) {
+            return existing;
+        }
+        existing.appendDistinct(List.of(fetched));
+        if (job.legs.stream().noneMatch(task -> task.buffer == fetched || task.askBuffer == fetched)) { //a merged series of several chunks
+            this.releaseBuffer(fetched);
+        }
+        return existing;
+    }
+
+    private BarBuffer mergeLegs(TickerJob job, PriceDataType type) {
+        List<BarBuffer> parts = new ArrayList<>();
+        for (RequestTask task : job.legs) {
+            BarBuffer series = seriesOf(task, type);
+            if (series != null) {
+                parts.add(series); //legs are oldest window first
+            }
+        }
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        BarBuffer merged = this.takeBuffer();
+        merged.appendDistinct(parts);
+        return merged;
+    }
+
+    //buffer of a request holding the given price type, the bid or ask half of a BID_ASK request included; null if none
+    private static BarBuffer seriesOf(RequestTask task, PriceDataType type) {
+        if (task.type == PriceDataType.BID_ASK) {
+            return type == PriceDataType.BID ? task.buffer : type == PriceDataType.ASK ? task.askBuffer : null;
+        }
+        return task.type == type ? task.buffer : null;
+    }
+
+    /*
+    the file is written under a temporary name and renamed once complete, so a data file is never left half written, and replaces the ticker's topped-up file if any
+    @return path of the file written
+    */
+    private Path saveData(TickerJob job) throws IOException {
         
-        String filename;
-        Path filePath; 
-        String firstDate = this.trades.peek().datetime.substring(0, 8); //oldest datetime in req
-        String lastDate = this.trades.peekLast().datetime.substring(0, 8); //newest datetime in req
+        Path filePath = this.dataFilePath(job, job.trades.time(0), job.trades.time(job.trades.size() - 1)); //oldest and newest bar in req
+        Path partPath = this.dirPath.resolve(filePath.getFileName() + ".part");
+
+        if (this.outputFormat != OutputFormat.CSV) {
+            this.saveBinary(job, partPath);
+        } else {
+            this.saveCsv(job, partPath);
+        }
+
+        this.commitFile(job, partPath, filePath);
+        return filePath;
+    
+    }
+
+    //filename format "AAPL 1min yyyymmdd-yyyymmdd.csv"
+    private Path dataFilePath(TickerJob job, long firstTime, long lastTime) {
+        String filename = job.contract.symbol() + " " + this.reqBarSize.replaceAll("\\s", "") + " " + BarTime.date(firstTime) + "-" + BarTime.date(lastTime);
+        return this.dirPath.resolve(filename + (this.outputFormat != OutputFormat.CSV ? BarFile.extension : ".csv"));
+    }
+
+    //rename a completely written file into place, removing the file it tops up if named differently
+    private void commitFile(TickerJob job, Path partPath, Path filePath) throws IOException {
+        try {
+            Files.move(partPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (job.existingFile != null && !job.existingFile.path().equals(filePath)) { //superseded by the topped-up file
+                Files.deleteIfExists(job.existingFile.path());
+            }
+        } catch (IOException err) {
+            throw new IOException("Error occurred when writing data to file for " + job.contract.symbol());
+        }
+    }
+
+    /*
+    write the rows of a streamed ticker its legs allow, moving on chunk by chunk; buffers of a written chunk go back to the pool
+    opens the stream on first use, with the rows of a topped-up file ahead of the new ones
+    */
+    private void streamJob(TickerJob job) throws IOException {
+        if (job.stream == null) {
+            job.stream = this.openStream(job);
+        }
+        int legsPerChunk = job.legs.size() / job.chunkCount;
+        while (job.streamChunk < job.chunkCount) {
+            List<RequestTask> legs = job.legs.subList(job.streamChunk * legsPerChunk, (job.streamChunk + 1) * legsPerChunk);
+            BarBuffer bids = null;
+            BarBuffer asks = null;
+            BarBuffer trades = null;
+            boolean isBidsEnded = true;
+            boolean isAsksEnded = true;
+            boolean isTradesEnded = true;
+            for (RequestTask task : legs) {
+                switch (task.type) {
+                    case BID -> { bids = task.buffer; isBidsEnded = task.isEnded; }
+                    case ASK -> { asks = task.buffer; isAsksEnded = task.isEnded; }
+                    case BID_ASK -> { bids = task.buffer; asks = task.askBuffer; isBidsEnded = task.isEnded; isAsksEnded = task.isEnded; }
+                    default -> { trades = task.buffer; isTradesEnded = task.isEnded; }
+                }
+            }
+            if (!job.stream.drain(bids, asks, trades, isBidsEnded, isAsksEnded, isTradesEnded)) { //waiting for more bars
+                return;
+            }
+            for (RequestTask task : legs) {
+                this.releaseBuffers(task);
+            }
+            job.streamChunk++;
+            job.stream.nextChunk();
+        }
+    }
 
-        filename = this.contract.symbol() + " " + this.reqBarSize.replaceAll("\\s", "") + " " + firstDate + "-" + lastDate + ".csv"; //filename format "AAPL 1min yyyymmdd-yyyymmdd.csv"
-        filePath = this.dirPath.resolve(filename);
+    //streamJob from a callback, which cannot throw checked exceptions
+    private void streamJobUnchecked(TickerJob job) throws UncheckedIOException {
+        try {
+            this.streamJob(job);
+        } catch (IOException err) {
+            throw new UncheckedIOException("Error occurred when writing data to file for " + job.ticker, err);
+        }
+    }
 
-        try (BufferedWriter writer = Files.newBufferedWriter(filePath)) {
+    private BarStream openStream(TickerJob job) throws IOException {
+        Path partPath = this.dirPath.resolve(job.contract.symbol() + " " + this.reqBarSize.replaceAll("\\s", "") + ".csv.part"); //final name known once written
+        String header = !this.withHeader ? null : this.isIntraday ? "datetime, bid, ask, open, high, low, close, volume" : "datetime, open, high, low, close, volume";
+        BarStream stream = new BarStream(partPath, this.isIntraday, header);
+        if (job.existingFile != null) { //existing rows before the fetched tail
+            try (BarColumns existing = HistoricalDataStore.openFile(job.existingFile)) {
+                stream.writeExisting(existing, HistoricalDataStore.lowerBound(existing, job.existingFile.lastDate() * 1000000L));
+            }
+        }
+        return stream;
+    }
+
+    //close a streamed ticker's file and rename it after its dates, null (file removed) if it has no trades
+    private Path finishStream(TickerJob job) throws IOException {
+        this.streamJob(job);
+        BarStream stream = job.stream;
+        job.stream = null;
+        stream.close();
+        if (!stream.hasTrades()) {
+            Files.deleteIfExists(stream.filePath());
+            return null;
+        }
+        Path filePath = this.dataFilePath(job, stream.firstTime(), stream.lastTime());
+        this.commitFile(job, stream.filePath(), filePath);
+        return filePath;
+    }
+
+    //drop a streamed ticker's partial file
+    private void discardStream(TickerJob job) {
+        if (job.stream == null) {
+            return;
+        }
+        try {
+            job.stream.close();
+            Files.deleteIfExists(job.stream.filePath());
+        } catch (IOException err) {
+            ; //a leftover .part file is overwritten by the next run
+        }
+        job.stream = null;
+    }
+
+    private void saveCsv(TickerJob job, Path filePath) throws IOException {
+
+        try (CsvBarWriter writer = new CsvBarWriter(filePath)) {
         
             if (this.isIntraday) {
-                this.joinBidAskTrades();
                 if (this.withHeader) {
-                    writer.write("datetime, bid, ask, open, high, low, close, volume"); //csv header
-                    writer.newLine();
+                    writer.writeLine("datetime, bid, ask, open, high, low, close, volume"); //csv header
                 }
-                for (BidAskTrades line : this.bidsAsksTrades) {
-                    writer.write(line.toString() + System.lineSeparator());
-                }   
+                joinBidAskTrades(job.bids, job.asks, job.trades, (timestamp, bidRow, askRow, tradeRow) -> { //joined rows streamed straight to file
+                    writer.timestamp(timestamp, true);
+                    writer.quote(job.bids, bidRow);
+                    writer.quote(job.asks, askRow);
+                    writer.trades(job.trades, tradeRow);
+                    writer.endRow();
+                });
             } else {
                 if (this.withHeader) {
-                    writer.write("datetime, open, high, low, close, volume"); //csv header
-                    writer.newLine();
+                    writer.writeLine("datetime, open, high, low, close, volume"); //csv header
                 }
-                for (Trades line : this.trades) {
-                    writer.write(line.toString() + System.lineSeparator());
+                for (int row = 0; row < job.trades.size(); row++) {
+                    writer.timestamp(job.trades.time(row), false);
+                    writer.trades(job.trades, row);
+                    writer.endRow();
                 }
             }
         } catch (IOException err) {
-            throw new IOException("Error occurred when writing data to file for " + this.contract.symbol());
+            throw new IOException("Error occurred when writing data to file for " + job.contract.symbol());
         }
     
     }
 
+    //save as binary columnar file, intraday legs first aligned row for row on the joined timestamps
+    private void saveBinary(TickerJob job, Path filePath) throws IOException {
+        boolean isDeltaEncoded = this.outputFormat == OutputFormat.BINARY_DELTA;
+        String barSize = this.reqBarSize.replaceAll("\\s", "");
+        try {
+            if (!this.isIntraday) {
+                BarFile.write(filePath, job.contract.symbol(), barSize, null, null, job.trades, isDeltaEncoded);
+                return;
+            }
+            BarBuffer bids = this.takeBuffer();
+            BarBuffer asks = this.takeBuffer();
+            BarBuffer trades = this.takeBuffer();
+            joinBidAskTrades(job.bids, job.asks, job.trades, (timestamp, bidRow, askRow, tradeRow) -> {
+                appendAligned(bids, job.bids, bidRow, timestamp);
+                appendAligned(asks, job.asks, askRow, timestamp);
+                appendAligned(trades, job.trades, tradeRow, timestamp);
+            });
+            BarFile.write(filePath, job.contract.symbol(), barSize, bids, asks, trades, isDeltaEncoded);
+            this.releaseBuffer(bids);
+            this.releaseBuffer(asks);
+            this.releaseBuffer(trades);
+        } catch (IOException | ArithmeticException err) {
+            throw new IOException("Error occurred when writing data to file for " + job.contract.symbol());
+        }
+    }
+
+    //copy a joined row, null where the leg has no bar at the timestamp (row -1)
+    private static void appendAligned(BarBuffer target, BarBuffer source, int row, long timestamp) {
+        if (row < 0) {
+            target.appendNull(timestamp);
+        } else {
+            target.appendRow(source, row);
+        }
+    }
+
     /*
     Utility function to help read user cmd inputs <ticker, endDateTime, period, barSize> and return as Map
     @return {"ticker": ticker, "dateTime": dateTime, "period": period, "barSize": barSize}
@@ -366,7 +1269,7 @@ public class HistoricalDataDownloader implements EWrapper {
     /*
     @return string in IBAPI dateTime format with timezone specified
     */
-    static private String makeDateTime(int year, int month, int day) throws IllegalArgumentException {
+    static String makeDateTime(int year, int month, int day) throws IllegalArgumentException {
         ZonedDateTime dateTime = null;
         try {
             dateTime = ZonedDateTime.of(year, month, day, 16, 0, 0, 0, timezone); //creating a ZonedDateTime obj
@@ -377,27 +1280,23 @@ public class HistoricalDataDownloader implements EWrapper {
         return dateTime.format(dateTimeWithTimezoneFormat); //format to string
     }
 
-    /*
-    @return string in IBAPI dateTime format without timezone 
-    */
-    static private String removeTimezone(String dateTimeWithTimezone) {
-        LocalDateTime dateTime = LocalDateTime.parse(dateTimeWithTimezone, dateTimeWithTimezoneFormat); //create a DateTime obj from string, tz removed
-        return dateTime.format(dateTimeWithoutTimezoneFormat); //format to string
-    }
     
     /*
-    setting variables for the Contract object
+    setting variables for the Contract object, one per ticker so that requests of different tickers can be in flight together
     @see https://interactivebrokers.github.io/tws-api/classIBApi_1_1Contract.html
     */
-    private void setContract(String ticker) {
-        this.contract.symbol(ticker.trim().toUpperCase());
-        this.contract.secType("STK");
-        this.contract.currency("USD");
-        this.contract.exchange("SMART"); 
+    static Contract makeContract(String ticker) {
+        Contract contract = new Contract();
+        contract.symbol(ticker.trim().toUpperCase());
+        contract.secType("STK");
+        contract.currency("USD");
+        contract.exchange("SMART"); 
+        return contract;
     }
 
     /*
     reqHistoricalData is the EClient method to request historical data and its callback is HistoricalData()
+    the request task carries the allocated reqId, the ticker contract, the price data type and the sub-window; bar size comes from the downloader
     @param int Id: uniquie id to tag the request
     @param Contract contract: Contract object representing the underlying
     @param String endDateTime: yyyyMMdd HH:mm:ss timezone format or empty for current; timezone format in America/New_York
@@ -410,17 +1309,15 @@ public class HistoricalDataDownloader implements EWrapper {
     @param List options: null
     @see: https://ibkrcampus.com/ibkr-api-page/twsapi-doc/#requesting-historical-bars
     */
-    private void request(PriceDataType reqDataType, int reqId) throws UncheckedIOException {
-        this.client.reqHistoricalData(reqId, this.contract, this.reqEndDateTime, this.reqPeriod, this.reqBarSize, reqDataType.name(), 1, 1, false, null);
-    }
-    private void request() { //overloaded no arg-request
-        this.request(PriceDataType.TRADES, 1);
-    }
-    private void request(PriceDataType reqDataType) { //overloaded type-only request
-        this.request(reqDataType, 1);
+    private void request(RequestTask task) throws UncheckedIOException {
+        task.sentAt = System.nanoTime();
+        this.metrics.recordSent();
+        this.client.reqHistoricalData(task.reqId, task.job.contract, task.window.endDateTime(), task.window.duration(), this.reqBarSize, task.type.name(), 1, 1, false, null);
     }
     private void cancelRequest(int reqId) {
-        this.client.cancelHistoricalData(reqId);
+        if (this.client.isConnected()) { //nothing to cancel on a lost connection
+            this.client.cancelHistoricalData(reqId);
+        }
     }
 
     /*
@@ -431,61 +1328,165 @@ public class HistoricalDataDownloader implements EWrapper {
     @see: https://ibkrcampus.com/ibkr-api-page/twsapi-ref/#ewrapper-pub-func
     */
     @Override
-    public void historicalData(int reqId, Bar candlestick) throws IllegalArgumentException {
+    public void historicalData(int reqId, Bar candlestick) {
 
-        String datetimestamp = this.isIntraday ? removeTimezone(candlestick.time().trim()) : candlestick.time().trim(); //remove timezone only if requested barsize is of intraday timescale, interday data have no tz
-        double open = 0;
-        double high = 0;
-        double low = 0;
-        double close = 0;
-        double bid = 0;
-        double ask = 0;
-        long volume = 0;
-
-        if (reqId == 2) { //message is for bid
-            bid = candlestick.open();
-        } else if (reqId == 3) { //message is for ask
-            ask = candlestick.open();
-        } else {  //message is for trades
-            open = candlestick.open();
-            high = candlestick.high();
-            low = candlestick.low();
-            close = candlestick.close();
-            volume = candlestick.volume().longValue(); //volume is of a IBAPI-defined Decimal type
+        RequestTask task = this.activeRequests.get(reqId); //look up which ticker and price type the message belongs to
+        if (task == null) { //request already cancelled (e.g. sibling request has no data), late messages dropped
+            return;
         }
 
-        switch (reqId) {
-            case 1 -> this.trades.add(new Trades(datetimestamp, open, high, low, close, volume));
-            case 2 -> this.bids.add(new Bid(datetimestamp, bid));
-            case 3 -> this.asks.add(new Ask(datetimestamp, ask));
-            default -> throw new IllegalArgumentException("Unable to recognise request ID to tag price type, failed to allocate message.");
+        this.metrics.recordBar();
+        long timestamp = BarTime.parse(candlestick.time()); //read straight into packed yyyyMMddHHmmss, timezone suffix of intraday bars dropped
+
+        switch (task.type) { //appended into the request's columnar buffer, no per-bar objects
+            case TRADES -> task.buffer.append(timestamp, candlestick.open(), candlestick.high(), candlestick.low(), candlestick.close(), candlestick.volume().longValue()); //volume is of a IBAPI-defined Decimal type
+            case BID, ASK -> task.buffer.append(timestamp, candlestick.open(), 0, 0, 0, 0); //only open kept as the price
+            case BID_ASK -> { //time-average bid as open and ask as close, split into the bid and ask series so the join sees the usual legs
+                task.buffer.append(timestamp, candlestick.open(), 0, 0, 0, 0);
+                task.askBuffer.append(timestamp, candlestick.close(), 0, 0, 0, 0);
+            }
+            default -> throw new IllegalArgumentException("Unable to recognise request price type, failed to allocate message.");
+        }
+        if (this.isStreaming && task.chunk == task.job.streamChunk) { //written as soon as the other legs allow
+            this.streamJobUnchecked(task.job);
         }
 
     }
 
     /*
     If reqHistoricalData used keepUpToDate = false, once all data points for a request have been received in HistoricalData(), this callback is invoked  
+    the request slot is freed, and once all legs of a ticker are done the ticker is queued for saving
+    */
+    @Override
+    public void historicalDataEnd(int reqId, String startDateStr, String endDateStr) {
+        RequestTask task = this.activeRequests.remove(reqId);
+        if (task == null) { //request already cancelled
+            return;
+        }
+        this.governor.recordSuccess();
+        this.metrics.recordCompleted(System.nanoTime() - task.sentAt);
+        this.storeInCache(task);
+        this.completeLeg(task);
+    }
+
+    //one request of a ticker finished, once all legs of all chunks are done the ticker is queued for saving
+    private void completeLeg(RequestTask task) {
+        task.isEnded = true;
+        if (this.isStreaming) { //the leg's last rows, and chunks waiting on it
+            this.streamJobUnchecked(task.job);
+        }
+        task.job.remainingLegs--;
+        if (task.job.remainingLegs == 0) { //all legs of the ticker received
+            this.completedJobs.add(task.job);
+        }
+    }
+
+    /*
+    first available bar of a ticker requested by reqHeadTimestamp(), in epoch seconds as asked; kept on disk, then the ticker's windows are clipped to it and its legs queued
+    */
+    @Override
+    public void headTimestamp(int reqId, String headTimestamp) {
+        TickerJob job = this.probes.remove(reqId);
+        if (job == null) { //ticker already dropped
+            return;
+        }
+        this.client.cancelHeadTimestamp(reqId); //answered, but left open by TWS until cancelled
+        long head = Long.parseLong(headTimestamp.trim());
+        try {
+            this.headTimestamps.put(job.contract.symbol(), headWhatToShow, head, Instant.now().getEpochSecond());
+        } catch (IOException err) { //only costs probing again next run
+            System.out.println("Could not keep head timestamp for " + job.ticker + ": " + err.getMessage());
+        }
+        job.windows = WindowPlanner.clip(job.windows, Instant.ofEpochSecond(head).atZone(timezone));
+        this.queueLegs(job);
+    }
+
+    /*
+    a contract matching a ticker's symbol, requested by reqContractDetails(); called once per match, then contractDetailsEnd()
+    */
+    @Override
+    public void contractDetails(int reqId, ContractDetails contractDetails) {
+        TickerJob job = this.probes.get(reqId);
+        if (job != null) {
+            job.matches.add(contractDetails.contract());
+        }
+    }
+
+    /*
+    all matches of a ticker's symbol received; a single match is kept on disk and the ticker requested by its conId, no or several matches skip the ticker
     */
     @Override
-    public void historicalDataEnd(int reqId, String startDateStr, String endDateStr) throws IllegalArgumentException {
-        switch (reqId) {
-            case 1 -> this.isTradesRequestDone = true; //used 1, 2, 3 for trades, bid, ask requests, respectively
-            case 2 -> this.isBidRequestDone = true;
-            case 3 -> this.isAskRequestDone = true;
-            default -> throw new IllegalArgumentException("Unable to recognise request ID in identifying request price type.");
+    public void contractDetailsEnd(int reqId) {
+        TickerJob job = this.probes.remove(reqId);
+        if (job == null) { //ticker already dropped
+            return;
+        }
+        if (job.matches.size() != 1) {
+            this.skipJob(job, job.matches.isEmpty() ? "has no contract" : "matches " + job.matches.size() + " contracts (" + job.matches.stream().map(Contract::primaryExch).collect(Collectors.joining(", ")) + ")");
+            return;
+        }
+        Contract match = job.matches.get(0);
+        job.matches.clear();
+        long now = Instant.now().getEpochSecond();
+        try {
+            this.contracts.put(job.contract.symbol(), match.conId(), match.primaryExch(), now);
+        } catch (IOException err) { //only costs resolving again next run
+            System.out.println("Could not keep contract for " + job.ticker + ": " + err.getMessage());
+        }
+        List<ContractCache.Resolution> history = this.contracts.history(job.contract.symbol());
+        job.contract = ContractCache.contract(history.get(history.size() - 1));
+        job.isResolved = true;
+        this.prepareJob(job); //head timestamp next if enabled
+    }
+
+    /*
+    drop a ticker whose data is unavailable, cancelling its sibling requests in flight and removing its queued ones
+    */
+    private void abandonJob(TickerJob job) {
+        this.discardStream(job);
+        for (RequestTask task : job.legs) {
+            this.releaseBuffers(task);
+        }
+        Iterator<RequestTask> active = this.activeRequests.values().iterator();
+        while (active.hasNext()) {
+            RequestTask task = active.next();
+            if (task.job == job) {
+                this.cancelRequest(task.reqId);
+                active.remove();
+            }
+        }
+        this.releasePending(task -> task.job == job);
+        this.probeQueue.remove(job);
+        Iterator<Entry<Integer, TickerJob>> probes = this.probes.entrySet().iterator();
+        while (probes.hasNext()) {
+            Entry<Integer, TickerJob> probe = probes.next();
+            if (probe.getValue() == job) {
+                if (this.client.isConnected() && !this.isResolving(job)) { //contract details cannot be cancelled, late answers are dropped
+                    this.client.cancelHeadTimestamp(probe.getKey());
+                }
+                probes.remove();
+            }
         }
     }
     
-    private void openConnection(int port) { //open socket connection
+    private void openConnection(SessionPool.Endpoint endpoint) { //open socket connection
         this.readerSignal = new EJavaSignal(); 
         this.client = new EClientSocket(this, this.readerSignal);
-        this.client.eConnect("127.0.0.1", port, 0); 
+        this.client.eConnect(endpoint.host(), endpoint.port(), endpoint.clientId()); 
         this.reader = new EReader(this.client, this.readerSignal); 
         this.reader.start(); //open a reader thread to starting listening for messages and placing into queue, then invoke issueSignal()
+        this.wakeupTimer = Executors.newSingleThreadScheduledExecutor(runnable -> { //daemon so a pending wakeup never keeps the JVM alive
+            Thread thread = new Thread(runnable, "pacing-wakeup");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     private void closeConnection() { //closing socket connection and terminating thread
         this.client.eDisconnect(); //socket closing method
+        if (this.wakeupTimer != null) {
+            this.wakeupTimer.shutdownNow();
+        }
     }
 
     @Override
@@ -513,31 +1514,71 @@ public class HistoricalDataDownloader implements EWrapper {
     @Override
     public void error(int id, int errorCode, String errorMsg, String advancedOrderRejectJson) throws RuntimeException, IllegalArgumentException {
         if ( okErrorCodes.contains(errorCode) ) { //when the error code represents a notification rather than actual error
-            ; //do nothing
+            String farm = farmName(errorMsg);
+            this.metrics.recordFarmRestored(farm, System.currentTimeMillis()); //ends an outage if the farm was down
+            if (this.farms.recordUp(farm)) { //held requests go out on the next dispatch
+                System.out.println("Data farm " + farm + " connection is back, resuming requests.");
+            }
         } else if (errorCode == 2103 || errorCode == 2105 || errorCode == 2157) { //data farm broken but will most likely restart (followed by 2104/2106/2158)
-            short sleepTime = 1; //sleeping time in minutes (whole number)
-            System.out.println( "Data farm connection error " + errorCode + " occured in " +  this.contract.symbol() + ", pausing this thread now for " + sleepTime + " minute.");
-            try {
-                Thread.sleep(sleepTime * 1000 * 60);
-            } catch (InterruptedException err) {
-                ;
+            String farm = farmName(errorMsg);
+            long now = System.currentTimeMillis();
+            this.metrics.recordFarmOutage(farm, now);
+            this.farms.recordDown(farm, now); //messages keep being processed, only new requests wait
+            this.scheduleWakeup(now + this.farms.delay(now)); //resume on timeout if no OK notice comes
+            System.out.println("Data farm connection error " + errorCode + " occurred for " + farm + ", holding new requests until it is back.");
+            if (this.sessionName != null) { //other sessions may still have a working farm
+                this.giveBackJobs(true);
+            }
+        } else if (this.probes.containsKey(id) && this.isResolving(this.probes.get(id))) { //symbol unknown to IB (200 no security definition), fails here instead of on every request
+            TickerJob job = this.probes.remove(id);
+            this.skipJob(job, "has no contract (" + errorCode + ": " + errorMsg + ")");
+        } else if (this.probes.containsKey(id)) { //no first bar known (e.g. 162 no head time stamp), the whole period is requested
+            TickerJob job = this.probes.remove(id);
+            System.out.println("No head timestamp for " + job.ticker + " (" + errorCode + "), requesting the whole period.");
+            this.queueLegs(job);
+        } else if (id > 0 && !this.activeRequests.containsKey(id)) { //request no longer in flight, e.g. 162 query cancelled or 366 after cancelling a skipped ticker's siblings
+            System.out.println("TWS message " + errorCode + " for request " + id + " no longer active: " + errorMsg);
+        } else if (errorCode == 162 && errorMsg.toLowerCase().contains("pacing violation")) { //request rejected for pacing, put back in front of the queue and hold all requests for a while
+            RequestTask task = this.activeRequests.remove(id);
+            if (task == null) {
+                return;
             }
+            this.governor.recordViolation(System.currentTimeMillis());
+            this.metrics.recordPacingViolation(task.job.ticker);
+            this.pendingRequests.addFirst(task); //same legs count, re-sent under a new reqId
+            System.out.println("Pacing violation for " + task.job.ticker + ", request re-queued.");
         } else if (errorCode == 162 && errorMsg.toLowerCase().contains("no data")) { //historical data error message and saying no data for requested dates for a stock (possibly new IPO etc)
-            if (this.isIntraday) {
-                throw new IllegalArgumentException("No data found for the stock, possibly not traded at the time.");
-            } else { //interday
-                throw new NoDataException(errorMsg); //signal to caller it is interday case for no data, ticker can be skipped (difficult to do in intraday as multiple requests BID ASK TRADES sent, id complication arises, better let it terminate)
+            RequestTask task = this.activeRequests.get(id);
+            if (task == null) { //not one of ours or already dropped
+                return;
             }
-            
+            this.metrics.recordWithoutData();
+            if (task.job.chunkCount > 1) { //one chunk without data (e.g. before IPO or a holiday), the rest of the period may still have data
+                this.activeRequests.remove(id);
+                this.storeInCache(task); //cached as empty, so not asked again
+                this.completeLeg(task);
+                return;
+            }
+            System.out.println("Data for " + task.job.ticker + " unavailable, skipping it.");
+            this.abandonJob(task.job); //requests routed by reqId, so only this ticker's requests are dropped, intraday included
+            this.openJobs--;
+            this.metrics.recordSkipped();
+            this.journalSkipped(task.job.contract.symbol());
         } else {            
             throw new RuntimeException(errorCode + ": " + errorMsg);
         }
     }
 
-    private class NoDataException extends RuntimeException {
-        private NoDataException(String msg) {
-            super(msg);
-        }
+    //farm named at the end of a data farm notice, e.g. "Market data farm connection is broken:usfarm"
+    static String farmName(String errorMsg) {
+        return errorMsg.substring(errorMsg.lastIndexOf(':') + 1).trim();
+    }
+
+    //format of saved data files
+    public enum OutputFormat {
+        CSV, //text, default
+        BINARY, //columnar binary, see BarFile
+        BINARY_DELTA //columnar binary with timestamps as second deltas
     }
 
     //Type of data to request, possible options are BID, ASK, TRADES (open and close refer to the first and last traded price), MIDPOINT, and BID_ASK (time-average bid ask prices) 
@@ -549,180 +1590,105 @@ public class HistoricalDataDownloader implements EWrapper {
         BID_ASK
     }
 
-    private record Bid(String datetime, Double bid) {
-    }
+    //a ticker being downloaded, holding its contract, data containers, and number of requests (legs) still outstanding
+    private static class TickerJob {
+        private final String ticker;
+        private Contract contract; //bare symbol, by conId once resolved
+        private boolean isResolved = false; //contract resolved to a conId
+        private List<Contract> matches = new ArrayList<>(); //contract details received while resolving
+        private List<WindowPlanner.Window> windows; //sub-windows of the period, newest first, clipped to the first bar if probed
+        private int chunkCount; //number of sub-windows, set once the legs are queued
+        private int remainingLegs = 0; //number of requests not yet ended
+        private List<RequestTask> legs = new ArrayList<>(); //all requests of the ticker, oldest window first, same legs per window
+        private BarBuffer bids; //merged series per price type, set once all legs are done
+        private BarBuffer asks;
+        private BarBuffer trades;
+        private HistoricalDataStore.DataFile existingFile; //file topped up in incremental mode, null otherwise
+        private BarStream stream; //file being written in streaming mode, opened on the first bars
+        private int streamChunk = 0; //oldest chunk not fully written in streaming mode
+
+        private TickerJob(String ticker, Contract contract, List<WindowPlanner.Window> windows) {
+            this.ticker = ticker.trim().toUpperCase();
+            this.contract = contract;
+            this.windows = windows;
+        }
 
-    private record Ask(String datetime, Double ask) {
+        //queue a request of the given price type and sub-window for this ticker
+        private void addLeg(Deque<RequestTask> queue, PriceDataType type, WindowPlanner.Window window, int chunk) {
+            RequestTask task = new RequestTask(this, type, window, chunk);
+            queue.add(task);
+            this.legs.add(task);
+            this.remainingLegs++;
+        }
     }
 
-    private record Trades(String datetime, Double open, Double high, Double low, Double close, Long volume) implements Comparable<Trades> {
-
-        @Override   //show datetime, open, high, low, close, volume
-        public String toString() { 
-            String[] data = {this.datetime, String.valueOf(this.open), String.valueOf(this.high), String.valueOf(this.low), String.valueOf(this.close), String.valueOf(this.volume)};
-            return (Stream.of(data).collect(Collectors.joining(", "))); //csv format
+    //a single historical data request, routed to its ticker job by reqId
+    private static class RequestTask {
+        private final TickerJob job;
+        private final PriceDataType type;
+        private final WindowPlanner.Window window; //sub-window of the request period
+        private final int chunk; //index of the sub-window, 0 the oldest
+        private int reqId; //allocated when sent
+        private BarBuffer buffer; //bars received, taken from the pool when sent; the bids of a BID_ASK request
+        private BarBuffer askBuffer; //asks of a BID_ASK request, null for other types
+        private boolean isEnded = false; //all bars received
+        private boolean isCacheChecked = false; //looked up in the cache, done once before it is first sent
+        private long sentAt; //System.nanoTime() when last sent
+
+        private RequestTask(TickerJob job, PriceDataType type, WindowPlanner.Window window, int chunk) {
+            this.job = job;
+            this.type = type;
+            this.window = window;
+            this.chunk = chunk;
         }
+    }
 
-        @Override   //obj A is considered larger than B if its datetime is after that of B (ie recent data is larger)
-        public int compareTo(Trades that) { 
-            Temporal thisTimestamp;
-            Temporal thatTimestamp;
-            
-            if ( this.datetime.equals(that.datetime()) ) {
-                return 0;
-            }
+    //outcome of a save on the writer thread, filePath null if the ticker has no trades, error null on success
+    private record SaveResult(TickerJob job, Path filePath, Exception error) {
+    }
 
-            if ( this.datetime.length() == 8 ) { //interday data yyyymmdd
-                thisTimestamp = LocalDate.parse(this.datetime, dateFormat);
-                thatTimestamp = LocalDate.parse(that.datetime(), dateFormat);
-            } else { //intraday data
-                thisTimestamp = LocalDateTime.parse(this.datetime, dateTimeWithoutTimezoneFormat);
-                thatTimestamp = LocalDateTime.parse(that.datetime(), dateTimeWithoutTimezoneFormat);
-            }
+    //receives joined rows one at a time as a timestamp and the row of each buffer at it, -1 where missing
+    @FunctionalInterface
+    interface RowConsumer {
+        void accept(long timestamp, int bidRow, int askRow, int tradeRow) throws IOException;
+    }
 
-            return dateTimeCompare(thisTimestamp, thatTimestamp);
-        }
+    /*
+    combine the bids, asks, and trades data in one pass, a sorted merge join on timestamp
+    each of the three may miss timestamps (commonly trades for less-liquid stocks, rarely bids or asks), the missing side is emitted as -1
+    @param BarBuffer bids, asks, trades: each in chronological order
+    @param RowConsumer consumer: receives joined rows in chronological order
+    */
+    static void joinBidAskTrades(BarBuffer bids, BarBuffer asks, BarBuffer trades, RowConsumer consumer) throws IOException {
 
-    }
+        int bidIndex = 0;
+        int askIndex = 0;
+        int tradeIndex = 0;
+        int bidCount = bids.size();
+        int askCount = asks.size();
+        int tradeCount = trades.size();
 
-    //data object to hold Bid, Ask, and Trades custom types
-    private record BidAskTrades(Bid bid, Ask ask, Trades trades) implements Comparable<BidAskTrades> {
+        while (bidIndex < bidCount || askIndex < askCount || tradeIndex < tradeCount) {
 
-        @Override   //obj A is considered larger than B if its datetime is after that of B (ie recent data is larger)
-        public int compareTo(BidAskTrades that) { 
-            Temporal thisTimestamp;
-            Temporal thatTimestamp;
-            
-            if ( this.bid.datetime.equals(that.bid.datetime()) ) {
-                return 0;
+            long key = Long.MAX_VALUE; //earliest timestamp among the three heads
+            if (bidIndex < bidCount) {
+                key = Math.min(key, bids.time(bidIndex));
             }
-
-            if ( this.bid.datetime.length() == 8 ) { //interday data yyyymmdd
-                thisTimestamp = LocalDate.parse(this.bid.datetime, dateFormat);
-                thatTimestamp = LocalDate.parse(that.bid.datetime(), dateFormat);
-            } else { //intraday data
-                thisTimestamp = LocalDateTime.parse(this.bid.datetime, dateTimeWithoutTimezoneFormat);
-                thatTimestamp = LocalDateTime.parse(that.bid.datetime(), dateTimeWithoutTimezoneFormat);
+            if (askIndex < askCount) {
+                key = Math.min(key, asks.time(askIndex));
+            }
+            if (tradeIndex < tradeCount) {
+                key = Math.min(key, trades.time(tradeIndex));
             }
 
-            return dateTimeCompare(thisTimestamp, thatTimestamp);
-        }
-
-        @Override   //show datetime, bid, ask, open, high, low, close, volume
-        public String toString() { 
-            String[] data = {this.bid.datetime, String.valueOf(this.bid.bid), String.valueOf(this.ask.ask), String.valueOf(this.trades.open), String.valueOf(this.trades.high), String.valueOf(this.trades.low), String.valueOf(this.trades.close), String.valueOf(this.trades.volume)};
-            return (Stream.of(data).collect(Collectors.joining(", "))); //csv format
-        }
-
-    }
-
-    //combine the bids, asks, and trades data queues
-    private void joinBidAskTrades() throws ArrayIndexOutOfBoundsException {
-
-        //the bids, askas, and trades collections should have identical sizes and supermajority of times are, but for less-liquid stocks trades data can be missing at a timestamp
-        if ( !(this.bids.size() == this.asks.size() && this.asks.size() == this.trades.size()) ) {//in case of unequal sizes
-            
-            if ( (this.bids.size() == this.asks.size()) && (this.trades.size() < this.bids.size()) ) { //commonly trades missing but bids and asks exist, fill null values in trades
+            int bidRow = (bidIndex < bidCount && bids.time(bidIndex) == key) ? bidIndex++ : -1;
+            int askRow = (askIndex < askCount && asks.time(askIndex) == key) ? askIndex++ : -1;
+            int tradeRow = (tradeIndex < tradeCount && trades.time(tradeIndex) == key) ? tradeIndex++ : -1;
 
-                for (int i = 0; i < this.bids.size(); i++) {  //loop through bids
-                    if (!(this.bids.get(i).datetime().equals(this.trades.get(i).datetime()))) {  //when a timestamp mismatched
-                        this.trades.add(i, new Trades(this.bids.get(i).datetime(), null, null, null, null, null)); //insert into trades collection with null data
-                    }
-                }
+            consumer.accept(key, bidRow, askRow, tradeRow);
 
-            } else { //very rarely should bids and asks be missing, cannot handle
-                throw new ArrayIndexOutOfBoundsException("The bids and asks data are less than trades data for " + this.contract.symbol());
-            }
-
-        }
-
-        for (Bid bid: this.bids) {
-            Ask ask = this.asks.remove();
-            Trades trade = this.trades.remove();
-            this.bidsAsksTrades.add(new BidAskTrades(bid, ask, trade));
-        }
-
-    }
-
-    //helper method for CompareTo in Comparable<>
-    static private int dateTimeCompare(Temporal dateTime1, Temporal dateTime2) {
-        int thisYear;
-        int thatYear;
-        int thisMonth;
-        int thatMonth;
-        int thisDay;
-        int thatDay;
-        int thisHour = 0;
-        int thatHour = 0;
-        int thisMinute = 0;
-        int thatMinute = 0;
-        int thisSecond = 0;
-        int thatSecond = 0;
-
-        if (dateTime1 instanceof LocalDateTime) { //intraday data
-            LocalDateTime thisDateTime = (LocalDateTime)dateTime1; 
-            LocalDateTime thatDateTime = (LocalDateTime)dateTime2; 
-            thisYear = thisDateTime.getYear();
-            thatYear = thatDateTime.getYear();
-            thisMonth = thisDateTime.getMonthValue();
-            thatMonth = thatDateTime.getMonthValue();
-            thisDay = thisDateTime.getDayOfMonth();
-            thatDay = thatDateTime.getDayOfMonth();
-            thisHour = thisDateTime.getHour();
-            thatHour =  thatDateTime.getHour();
-            thisMinute = thisDateTime.getMinute();
-            thatMinute = thatDateTime.getMinute();
-            thisSecond = thisDateTime.getSecond();
-            thatSecond = thatDateTime.getSecond();
-        } else { //interday data
-            LocalDate thisDateTime = (LocalDate)dateTime1; 
-            LocalDate thatDateTime = (LocalDate)dateTime2; 
-            thisYear = thisDateTime.getYear();
-            thatYear = thatDateTime.getYear();
-            thisMonth = thisDateTime.getMonthValue();
-            thatMonth = thatDateTime.getMonthValue();
-            thisDay = thisDateTime.getDayOfMonth();
-            thatDay = thatDateTime.getDayOfMonth();
-        }
-
-        if (thisYear == thatYear && thisMonth == thatMonth && thisDay == thatDay) { //same dates, intraday comparison
-            if (thisHour > thatHour) {
-                return 1;
-            } else if (thisHour < thatHour) {
-                return -1;
-            } else { //same hour
-                if (thisMinute > thatMinute) { 
-                    return 1;
-                } else if (thisMinute < thatMinute) {
-                    return -1;
-                } else { //same hour and minute
-                    if (thisSecond > thatSecond) {
-                        return 1;
-                    } else {
-                        return -1;
-                    }
-                }
-            }
+        }
 
-        } else { //different dates
-            if (thisYear > thatYear) {
-                return 1;
-            } else if (thisYear < thatYear) {
-                return -1;
-            } else { //same year
-                if (thisMonth > thatMonth) {
-                    return 1;
-                } else if (thisMonth < thatMonth) {
-                    return -1;
-                } else { //same year and month
-                    if (thisDay > thatDay) {
-                        return 1;
-                    } else {
-                        return -1;
-                    }
-                }
-            }
-        } 
     }
 
     //all irrelevant EWrapper interface callback functions, left empty
@@ -771,15 +1737,9 @@ public class HistoricalDataDownloader implements EWrapper {
     public void accountDownloadEnd(String accountName) {
     }
 
-    public void contractDetails(int reqId, ContractDetails contractDetails) {
-    }
-
     public void bondContractDetails(int reqId, ContractDetails contractDetails) {
     }
 
-    public void contractDetailsEnd(int reqId) {
-    }
-
     public void execDetails(int reqId, Contract contract, Execution execution) {
     }
 
@@ -918,9 +1878,6 @@ public class HistoricalDataDownloader implements EWrapper {
     public void historicalNewsEnd(int requestId, boolean hasMore) {
     }
 
-    public void headTimestamp(int reqId, String headTimestamp) {
-    }
-
     public void histogramData(int reqId, List<HistogramEntry> items) {
     }
 
@@ -0,0 +1,301 @@
+package historicalData;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+import java.util.stream.*;
+
+/*
+read-side access to the data files saveData() writes into a directory
+files are located by ticker, bar size and date range from the "TICKER barSize yyyymmdd-yyyymmdd.csv/.bars" naming, binary files preferred over csv of the same name
+files are memory-mapped (csv parsed from the mapping without Strings), range queries binary search the timestamp column
+timestamps are packed yyyyMMddHHmmss longs, as in BarFile; a ticker spread over several, possibly overlapping, files is read as one chronological series
+*/
+public class HistoricalDataStore {
+
+    private static final Pattern fileNamePattern = Pattern.compile("(\\S+) (\\S+) (\\d{8})-(\\d{8})(\\.csv|\\.bars)"); //ticker, barSize, first date, last date, extension
+
+    private final Path dirPath;
+
+    /*
+    @param String dirPath: directory data files were saved in
+    */
+    public HistoricalDataStore(String dirPath) throws IllegalArgumentException {
+        this.dirPath = Paths.get(dirPath);
+        if (!Files.isDirectory(this.dirPath)) {
+            throw new IllegalArgumentException("Input path is not a directory.");
+        }
+        if (!Files.isReadable(this.dirPath)) {
+            throw new IllegalArgumentException("Input path is not readable.");
+        }
+    }
+
+    //a data file identified from its name
+    record DataFile(Path path, String ticker, String barSize, int firstDate, int lastDate, boolean isBinary) {
+    }
+
+    /*
+    data files of a ticker and bar size overlapping the date range, oldest first
+    @param String ticker
+    @param String barSize: such as "1 min" or "1min"
+    @param int fromDate, toDate: yyyyMMdd, inclusive
+    */
+    public List<Path> locate(String ticker, String barSize, int fromDate, int toDate) throws IOException {
+        return this.find(ticker, barSize, fromDate, toDate).stream().map(DataFile::path).collect(Collectors.toList());
+    }
+
+    List<DataFile> find(String ticker, String barSize, int fromDate, int toDate) throws IOException {
+        Map<String, DataFile> byName = new HashMap<>(); //file name without extension -> file, binary kept over csv
+        for (DataFile file : this.scan(ticker, barSize)) {
+            if (file.lastDate() < fromDate || file.firstDate() > toDate) {
+                continue;
+            }
+            String stem = file.ticker() + " " + file.barSize() + " " + file.firstDate() + "-" + file.lastDate();
+            byName.merge(stem, file, (kept, other) -> kept.isBinary() ? kept : other);
+        }
+        List<DataFile> files = new ArrayList<>(byName.values());
+        files.sort(Comparator.comparingInt(DataFile::firstDate).thenComparingInt(DataFile::lastDate));
+        return files;
+    }
+
+    /*
+    file of a ticker and bar size in the given format whose data reaches the latest date, the longest one if several; null if none
+    */
+    DataFile latest(String ticker, String barSize, boolean isBinary) throws IOException {
+        DataFile latest = null;
+        for (DataFile file : this.scan(ticker, barSize)) {
+            if (file.isBinary() == isBinary && (latest == null || file.lastDate() > latest.lastDate() || (file.lastDate() == latest.lastDate() && file.firstDate() < latest.firstDate()))) {
+                latest = file;
+            }
+        }
+        return latest;
+    }
+
+    //all data files of a ticker and bar size in the directory
+    private List<DataFile> scan(String ticker, String barSize) throws IOException {
+        String symbol = ticker.trim().toUpperCase();
+        String size = barSize.replaceAll("\\s", "");
+        List<DataFile> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(this.dirPath)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                DataFile file = parseFileName(path);
+                if (file != null && file.ticker().equals(symbol) && file.barSize().equals(size)) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    //null if not named like a data file
+    static DataFile parseFileName(Path path) {
+        Matcher matcher = fileNamePattern.matcher(path.getFileName().toString());
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new DataFile(path, matcher.group(1), matcher.group(2), Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)), matcher.group(5).equals(BarFile.extension));
+    }
+
+    static BarColumns openFile(DataFile file) throws IOException {
+        return file.isBinary() ? BarFile.open(file.path()) : CsvBarFile.open(file.path());
+    }
+
+    /*
+    streaming cursor over the bars of a ticker between two timestamps, across files
+    @param long from, to: packed yyyyMMddHHmmss, inclusive
+    */
+    public Cursor cursor(String ticker, String barSize, long from, long to) throws IOException {
+        return new Cursor(this.find(ticker, barSize, BarTime.date(from), BarTime.date(to)), from, to);
+    }
+
+    /*
+    bars of a ticker between two timestamps as primitive arrays
+    @param long from, to: packed yyyyMMddHHmmss, inclusive
+    */
+    public BarSeries query(String ticker, String barSize, long from, long to) throws IOException {
+        try (Cursor cursor = this.cursor(ticker, barSize, from, to)) {
+            SeriesBuilder builder = new SeriesBuilder();
+            while (cursor.next()) {
+                builder.add(cursor);
+            }
+            return builder.build(cursor.isIntraday());
+        }
+    }
+
+    /*
+    bars as primitive arrays, row i across all arrays; NaN for missing prices and -1 for missing volume
+    bid and ask are empty for interday data
+    */
+    public record BarSeries(boolean isIntraday, long[] time, double[] bid, double[] ask, double[] open, double[] high, double[] low, double[] close, long[] volume) {
+
+        public int size() {
+            return this.time.length;
+        }
+
+    }
+
+    /*
+    forward-only cursor, next() moves to the following bar and the getters read it; files are opened as reached and closed when passed
+    */
+    public static final class Cursor implements Closeable {
+
+        private final List<DataFile> files;
+        private final long from;
+        private final long to;
+        private int fileIndex = -1;
+        private BarColumns current; //file being read
+        private int row;
+        private int endRow; //exclusive
+        private long lastTime = Long.MIN_VALUE; //rows not after this are overlap with the previous file
+        private boolean isIntraday;
+
+        private Cursor(List<DataFile> files, long from, long to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        //@return false when no bars left
+        public boolean next() throws IOException {
+            while (true) {
+                if (this.current != null) {
+                    while (++this.row < this.endRow) {
+                        if (this.current.time(this.row) > this.lastTime) {
+                            this.lastTime = this.current.time(this.row);
+                            return true;
+                        }
+                    }
+                    this.current.close();
+                    this.current = null;
+                }
+                if (++this.fileIndex >= this.files.size()) {
+                    return false;
+                }
+                this.current = openFile(this.files.get(this.fileIndex));
+                this.isIntraday = this.current.isIntraday();
+                this.row = lowerBound(this.current, Math.max(this.from, this.lastTime + 1)) - 1; //advanced on the loop
+                this.endRow = lowerBound(this.current, this.to + 1);
+            }
+        }
+
+        public boolean isIntraday() {
+            return this.isIntraday;
+        }
+
+        public long time() {
+            return this.current.time(this.row);
+        }
+
+        public double bid() {
+            return this.current.bid(this.row);
+        }
+
+        public double ask() {
+            return this.current.ask(this.row);
+        }
+
+        public double open() {
+            return this.current.open(this.row);
+        }
+
+        public double high() {
+            return this.current.high(this.row);
+        }
+
+        public double low() {
+            return this.current.low(this.row);
+        }
+
+        public double closePrice() { //close() releases the cursor
+            return this.current.close(this.row);
+        }
+
+        public long volume() {
+            return this.current.volume(this.row);
+        }
+
+        public boolean isTradesNull() {
+            return this.current.isTradesNull(this.row);
+        }
+
+        public boolean isBidNull() {
+            return this.current.isBidNull(this.row);
+        }
+
+        public boolean isAskNull() {
+            return this.current.isAskNull(this.row);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.current != null) {
+                this.current.close();
+                this.current = null;
+            }
+        }
+
+    }
+
+    //first row with time at or after the given timestamp, rowCount if none
+    static int lowerBound(BarColumns bars, long timestamp) {
+        int low = 0;
+        int high = bars.rowCount();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (bars.time(middle) < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    //growable primitive columns filled from a cursor
+    private static class SeriesBuilder {
+
+        private int size = 0;
+        private long[] time = new long[1024];
+        private double[] bid = new double[1024];
+        private double[] ask = new double[1024];
+        private double[] open = new double[1024];
+        private double[] high = new double[1024];
+        private double[] low = new double[1024];
+        private double[] close = new double[1024];
+        private long[] volume = new long[1024];
+
+        private void add(Cursor cursor) {
+            if (this.size == this.time.length) {
+                int capacity = this.size * 2;
+                this.time = Arrays.copyOf(this.time, capacity);
+                this.bid = Arrays.copyOf(this.bid, capacity);
+                this.ask = Arrays.copyOf(this.ask, capacity);
+                this.open = Arrays.copyOf(this.open, capacity);
+                this.high = Arrays.copyOf(this.high, capacity);
+                this.low = Arrays.copyOf(this.low, capacity);
+                this.close = Arrays.copyOf(this.close, capacity);
+                this.volume = Arrays.copyOf(this.volume, capacity);
+            }
+            int row = this.size++;
+            this.time[row] = cursor.time();
+            if (cursor.isIntraday()) {
+                this.bid[row] = cursor.isBidNull() ? Double.NaN : cursor.bid();
+                this.ask[row] = cursor.isAskNull() ? Double.NaN : cursor.ask();
+            }
+            boolean isNull = cursor.isTradesNull();
+            this.open[row] = isNull ? Double.NaN : cursor.open();
+            this.high[row] = isNull ? Double.NaN : cursor.high();
+            this.low[row] = isNull ? Double.NaN : cursor.low();
+            this.close[row] = isNull ? Double.NaN : cursor.closePrice();
+            this.volume[row] = isNull ? -1 : cursor.volume();
+        }
+
+        private BarSeries build(boolean isIntraday) {
+            int quoteSize = isIntraday ? this.size : 0;
+            return new BarSeries(isIntraday, Arrays.copyOf(this.time, this.size), Arrays.copyOf(this.bid, quoteSize), Arrays.copyOf(this.ask, quoteSize), Arrays.copyOf(this.open, this.size), Arrays.copyOf(this.high, this.size), Arrays.copyOf(this.low, this.size), Arrays.copyOf(this.close, this.size), Arrays.copyOf(this.volume, this.size));
+        }
+
+    }
+
+}
@@ -0,0 +1,187 @@
+package historicalData;
+
+import java.util.*;
+
+/*
+sliding-window governor placed before every reqHistoricalData, releasing requests at the highest rate that stays within IB pacing limits
+limits enforced:
+    identical request (same contract, window, bar size, whatToShow) not repeated within 15 seconds
+    no more than 6 requests for the same contract and whatToShow within 2 seconds (small bars only)
+    no more than 60 requests within any 10 minutes (small bars only)
+IB applies the last two only to bar sizes of 30 secs or less, larger bars are throttled softly by TWS itself; a BID_ASK request counts as two towards them
+shared by the sessions of a pool connected to the same TWS, so synchronized
+@see https://ibkrcampus.com/ibkr-api-page/twsapi-doc/#hist-pacing-violations
+*/
+class RequestGovernor {
+
+    private static final long identicalWindowMillis = 15_000; //identical requests window
+    private static final long contractWindowMillis = 2_000; //same contract/whatToShow window
+    private static final int contractWindowLimit = 5; //6 or more within the window is a violation
+    private static final long globalWindowMillis = 10 * 60_000; //overall window
+    private static final int globalWindowLimit = 60; //more than 60 within the window is a violation
+    private static final long minBackoffMillis = 15_000; //hold after a pacing violation is reported by TWS
+    private static final long maxBackoffMillis = 10 * 60_000;
+
+    private final boolean isSmallBars; //bar size of 30 secs or less, all rules apply
+    private ArrayDeque<Long> globalHistory = new ArrayDeque<>(); //send times of recent requests, oldest first
+    private Map<String, ArrayDeque<Long>> contractHistory = new HashMap<>(); //contract/barSize/whatToShow -> send times of recent requests
+    private Map<String, Long> identicalHistory = new HashMap<>(); //full request identity -> last send time
+    private Map<String, Long> heldSince = new HashMap<>(); //requests currently held back -> time first held
+    private long blockedUntil = 0; //no request released before this time, set after a reported violation
+    private long backoffMillis = minBackoffMillis;
+    //metrics
+    private long requestsReleased = 0;
+    private long totalWaitMillis = 0; //accumulated time requests spent held back
+    private long violationsAvoided = 0; //requests that would have breached a limit if sent when first tried
+    private long violationsReported = 0; //pacing violations still received from TWS
+
+    RequestGovernor(boolean isSmallBars) {
+        this.isSmallBars = isSmallBars;
+    }
+
+    synchronized long tryAcquire(String contractKey, String identityKey, long now) {
+        return this.tryAcquire(contractKey, identityKey, 1, now);
+    }
+
+    /*
+    check if a request can be sent now, recording it as sent if so
+    @param String contractKey: contract/barSize/whatToShow of the request
+    @param String identityKey: contractKey plus the request window, identical requests share it
+    @param int weight: requests IB counts it as towards the limits, 2 for BID_ASK
+    @param long now: current time in millis
+    @return 0 if the request is released, otherwise millis to wait before trying again
+    */
+    synchronized long tryAcquire(String contractKey, String identityKey, int weight, long now) {
+
+        this.prune(now);
+
+        long wait = this.globalDelay(weight, now);
+
+        Long lastIdentical = this.identicalHistory.get(identityKey);
+        if (lastIdentical != null) {
+            wait = Math.max(wait, lastIdentical + identicalWindowMillis - now);
+        }
+
+        ArrayDeque<Long> sentTimes = this.contractHistory.get(contractKey);
+        if (this.isSmallBars && sentTimes != null) {
+            wait = Math.max(wait, windowDelay(sentTimes, contractWindowLimit, weight, contractWindowMillis, now));
+        }
+
+        if (wait > 0) { //held back
+            if (this.heldSince.putIfAbsent(identityKey, now) == null) {
+                this.violationsAvoided++;
+            }
+            return wait;
+        }
+
+        Long firstHeld = this.heldSince.remove(identityKey);
+        if (firstHeld != null) {
+            this.totalWaitMillis += now - firstHeld;
+        }
+        ArrayDeque<Long> contractTimes = this.contractHistory.computeIfAbsent(contractKey, key -> new ArrayDeque<>());
+        for (int i = 0; i < weight; i++) { //one send time per request counted
+            this.globalHistory.addLast(now);
+            contractTimes.addLast(now);
+        }
+        this.identicalHistory.put(identityKey, now);
+        this.requestsReleased++;
+        return 0;
+
+    }
+
+    /*
+    a held-back request dropped without being sent (ticker abandoned, handed to another session, fetch cancelled), no longer counted as queued
+    @param String identityKey: as passed to tryAcquire
+    */
+    synchronized void release(String identityKey) {
+        this.heldSince.remove(identityKey);
+    }
+
+    /*
+    millis to wait before any request can be sent, regardless of contract
+    */
+    synchronized long globalDelay(long now) {
+        return this.globalDelay(1, now);
+    }
+
+    //millis to wait before a request of the given weight can be sent, regardless of contract
+    synchronized long globalDelay(int weight, long now) {
+        long wait = this.blockedUntil - now;
+        if (this.isSmallBars) {
+            wait = Math.max(wait, windowDelay(this.globalHistory, globalWindowLimit, weight, globalWindowMillis, now));
+        }
+        return Math.max(wait, 0);
+    }
+
+    //millis until enough send times leave the window for weight more requests to stay within the limit, 0 if they fit now
+    private static long windowDelay(ArrayDeque<Long> sentTimes, int limit, int weight, long windowMillis, long now) {
+        int excess = sentTimes.size() + weight - limit; //send times that must leave the window first
+        if (excess <= 0) {
+            return 0;
+        }
+        Iterator<Long> times = sentTimes.iterator();
+        long sentTime = times.next();
+        for (int i = 1; i < excess; i++) {
+            sentTime = times.next();
+        }
+        return sentTime + windowMillis - now;
+    }
+
+    /*
+    TWS reported a pacing violation despite the limits (e.g. requests sent by another client), hold all requests with doubling backoff
+    */
+    synchronized void recordViolation(long now) {
+        this.violationsReported++;
+        this.blockedUntil = now + this.backoffMillis;
+        this.backoffMillis = Math.min(this.backoffMillis * 2, maxBackoffMillis);
+    }
+
+    //a request completed normally, backoff reset
+    synchronized void recordSuccess() {
+        this.backoffMillis = minBackoffMillis;
+    }
+
+    //drop send times that fell out of every window
+    private void prune(long now) {
+        while (!this.globalHistory.isEmpty() && this.globalHistory.peekFirst() <= now - globalWindowMillis) {
+            this.globalHistory.removeFirst();
+        }
+        Iterator<ArrayDeque<Long>> contracts = this.contractHistory.values().iterator();
+        while (contracts.hasNext()) {
+            ArrayDeque<Long> sentTimes = contracts.next();
+            while (!sentTimes.isEmpty() && sentTimes.peekFirst() <= now - contractWindowMillis) {
+                sentTimes.removeFirst();
+            }
+            if (sentTimes.isEmpty()) {
+                contracts.remove();
+            }
+        }
+        this.identicalHistory.values().removeIf(sentTime -> sentTime <= now - identicalWindowMillis);
+    }
+
+    synchronized int getQueuedRequests() { //requests currently held back
+        return this.heldSince.size();
+    }
+
+    synchronized long getRequestsReleased() {
+        return this.requestsReleased;
+    }
+
+    synchronized long getTotalWaitMillis() {
+        return this.totalWaitMillis;
+    }
+
+    synchronized long getViolationsAvoided() {
+        return this.violationsAvoided;
+    }
+
+    synchronized long getViolationsReported() {
+        return this.violationsReported;
+    }
+
+    @Override   //one line summary of pacing metrics
+    synchronized public String toString() {
+        return "Pacing: " + this.requestsReleased + " requests sent, " + this.violationsAvoided + " held back for " + (this.totalWaitMillis / 1000) + " secs in total, " + this.violationsReported + " violations reported by TWS.";
+    }
+
+}
@@ -0,0 +1,267 @@
+package historicalData;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+import java.util.stream.*;
+
+/*
+disk cache of completed historical data responses, one binary blob per request, so repeated requests are served without TWS and pacing budget
+keyed by symbol, price type, bar size, window end datetime and duration; only windows ending in the past are stored, whose bars no longer change
+blob (little endian): magic "HDRC", version (int), key length (int) and UTF-8 key, row count (int), then time (long), open, high, low, close (double), volume (long) columns and a null bitmap (long words)
+blob files are named by a hash of the key and written under a temporary name then renamed; the index is rebuilt from the blob headers on open
+least recently used blobs are evicted once the total size exceeds the limit, recency kept across runs as file modified times
+shared by the sessions of a pool, so synchronized
+*/
+final class ResponseCache {
+
+    private static final int magic = 0x43524448; //"HDRC" in little endian
+    private static final int version = 1;
+    private static final String extension = ".blob";
+
+    private final Path cachePath;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true); //key -> blob, least recently used first
+    private long totalBytes = 0;
+    //metrics
+    private long hits = 0;
+    private long misses = 0;
+    private long stores = 0;
+    private long evictions = 0;
+
+    //a cached response on disk
+    private record Entry(Path path, long size) {
+    }
+
+    /*
+    @param Path cachePath: directory of the blobs, created if missing
+    @param long maxBytes: size the blobs are evicted down to
+    */
+    ResponseCache(Path cachePath, long maxBytes) throws IOException, IllegalArgumentException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive.");
+        }
+        this.cachePath = cachePath;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(cachePath);
+
+        List<Path> blobs;
+        try (Stream<Path> paths = Files.list(cachePath)) {
+            blobs = paths.filter(path -> path.getFileName().toString().endsWith(extension)).collect(Collectors.toList());
+        }
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path blob : blobs) {
+            modified.put(blob, Files.getLastModifiedTime(blob).toMillis());
+        }
+        blobs.sort(Comparator.comparingLong(modified::get)); //oldest use first, so the index starts in LRU order
+        for (Path blob : blobs) {
+            String key = readKey(blob);
+            if (key == null) { //unreadable or foreign, dropped
+                Files.deleteIfExists(blob);
+                continue;
+            }
+            long size = Files.size(blob);
+            this.index.put(key, new Entry(blob, size));
+            this.totalBytes += size;
+        }
+        this.evict();
+    }
+
+    /*
+    copy a cached response into the buffer
+    @return true on a hit, false if not cached (or unreadable, then dropped)
+    */
+    synchronized boolean get(String key, BarBuffer buffer) {
+        Entry entry = this.index.get(key);
+        if (entry == null) {
+            this.misses++;
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(entry.path(), StandardOpenOption.READ)) {
+            ByteBuffer blob = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (blob.hasRemaining() && channel.read(blob) >= 0) {
+            }
+            blob.flip();
+            read(blob, buffer);
+            Files.setLastModifiedTime(entry.path(), FileTime.fromMillis(System.currentTimeMillis())); //recency for later runs
+        } catch (IOException | RuntimeException err) { //corrupt blob, fetched again
+            this.remove(key);
+            buffer.clear();
+            this.misses++;
+            return false;
+        }
+        this.hits++;
+        return true;
+    }
+
+    //store a completed response, replacing any blob of the same key
+    synchronized void put(String key, BarBuffer bars) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int rows = bars.size();
+        int words = (rows + 63) / 64;
+        ByteBuffer blob = ByteBuffer.allocate(16 + keyBytes.length + rows * 48 + words * 8).order(ByteOrder.LITTLE_ENDIAN);
+        blob.putInt(magic);
+        blob.putInt(version);
+        blob.putInt(keyBytes.length);
+        blob.put(keyBytes);
+        blob.putInt(rows);
+        for (int row = 0; row < rows; row++) {
+            blob.putLong(bars.time(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            blob.putDouble(bars.open(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            blob.putDouble(bars.high(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            blob.putDouble(bars.low(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            blob.putDouble(bars.close(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            blob.putLong(bars.volume(row));
+        }
+        for (int word = 0; word < words; word++) {
+            long bits = 0;
+            for (int bit = 0; bit < 64 && word * 64 + bit < rows; bit++) {
+                if (bars.isNull(word * 64 + bit)) {
+                    bits |= 1L << bit;
+                }
+            }
+            blob.putLong(bits);
+        }
+        blob.flip();
+
+        Path blobPath = this.cachePath.resolve(hash(key) + extension);
+        Path partPath = this.cachePath.resolve(blobPath.getFileName() + ".part");
+        try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (blob.hasRemaining()) {
+                channel.write(blob);
+            }
+        }
+        Files.move(partPath, blobPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Entry previous = this.index.put(key, new Entry(blobPath, blob.limit()));
+        if (previous != null) {
+            this.totalBytes -= previous.size();
+        }
+        this.totalBytes += blob.limit();
+        this.stores++;
+        this.evict();
+    }
+
+    //drop least recently used blobs until within the size limit
+    private void evict() throws IOException {
+        Iterator<Map.Entry<String, Entry>> eldest = this.index.entrySet().iterator();
+        while (this.totalBytes > this.maxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            eldest.remove();
+            this.totalBytes -= entry.size();
+            Files.deleteIfExists(entry.path());
+            this.evictions++;
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = this.index.remove(key);
+        if (entry != null) {
+            this.totalBytes -= entry.size();
+            try {
+                Files.deleteIfExists(entry.path());
+            } catch (IOException err) {
+                ; //left behind, replaced when stored again
+            }
+        }
+    }
+
+    private static void read(ByteBuffer blob, BarBuffer buffer) throws IOException {
+        if (blob.getInt() != magic || blob.getInt() != version) {
+            throw new IOException("Not a cache blob");
+        }
+        int keyLength = blob.getInt();
+        blob.position(blob.position() + keyLength); //key
+        int rows = blob.getInt();
+        int timeAt = blob.position();
+        int openAt = timeAt + rows * 8;
+        int highAt = openAt + rows * 8;
+        int lowAt = highAt + rows * 8;
+        int closeAt = lowAt + rows * 8;
+        int volumeAt = closeAt + rows * 8;
+        int nullsAt = volumeAt + rows * 8;
+        for (int row = 0; row < rows; row++) {
+            long timestamp = blob.getLong(timeAt + row * 8);
+            if ((blob.getLong(nullsAt + (row >>> 6) * 8) & (1L << row)) != 0) {
+                buffer.appendNull(timestamp);
+            } else {
+                buffer.append(timestamp, blob.getDouble(openAt + row * 8), blob.getDouble(highAt + row * 8), blob.getDouble(lowAt + row * 8), blob.getDouble(closeAt + row * 8), blob.getLong(volumeAt + row * 8));
+            }
+        }
+    }
+
+    //key stored in the blob header, null if not a blob of this version
+    private static String readKey(Path blobPath) {
+        try (FileChannel channel = FileChannel.open(blobPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) < 12 || header.getInt(0) != magic || header.getInt(4) != version) {
+                return null;
+            }
+            int length = header.getInt(8);
+            if (length <= 0 || length > 1024) {
+                return null;
+            }
+            ByteBuffer key = ByteBuffer.allocate(length);
+            if (channel.read(key, 12) < length) {
+                return null;
+            }
+            return new String(key.array(), StandardCharsets.UTF_8);
+        } catch (IOException err) {
+            return null;
+        }
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) { //128 bits, enough to tell keys apart
+                name.append(String.format("%02x", digest[i]));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException err) {
+            throw new IllegalStateException(err); //every JDK has SHA-256
+        }
+    }
+
+    synchronized long getHits() {
+        return this.hits;
+    }
+
+    synchronized long getMisses() {
+        return this.misses;
+    }
+
+    synchronized long getStores() {
+        return this.stores;
+    }
+
+    synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    @Override
+    synchronized public String toString() {
+        return "Cache: " + this.hits + " hits, " + this.misses + " misses, " + this.stores + " stored, " + this.evictions + " evicted, " + this.index.size() + " responses in " + this.totalBytes / 1024 + " KB.";
+    }
+
+}
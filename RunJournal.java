@@ -0,0 +1,103 @@
+package historicalData;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+append-only record of the tickers a download run has finished, kept in the output directory so a restarted run can skip them
+one journal per bar size and format (see fileName), so runs of several bar sizes into one directory each keep their own
+first line identifies the run (end datetime, period, bar size, format); a journal of a different run is started over
+entries are "saved <ticker> <file name>" or "skipped <ticker>" (no data), tab separated, one per line and forced to disk as written
+a saved ticker counts as done only while its file is still there; a line torn by a crash is ignored
+written to by every session of a pool, so synchronized
+*/
+final class RunJournal {
+
+    private static final String filePrefix = "download-journal";
+    private static final String runTag = "run";
+    private static final String savedTag = "saved";
+    private static final String skippedTag = "skipped";
+
+    private final Path journalPath;
+    private final Path dirPath;
+    private final Map<String, String> savedFiles = new HashMap<>(); //ticker -> data file name
+    private final Set<String> skippedTickers = new HashSet<>();
+
+    /*
+    @param Path dirPath: output directory the journal lives in
+    @param String fileName: journal file in the directory, see fileName(String, String)
+    @param String runKey: request parameters identifying the run, a journal with another key is discarded
+    */
+    RunJournal(Path dirPath, String fileName, String runKey) throws IOException {
+        this.dirPath = dirPath;
+        this.journalPath = dirPath.resolve(fileName);
+        if (Files.exists(this.journalPath) && this.read(runKey)) {
+            return;
+        }
+        this.savedFiles.clear();
+        this.skippedTickers.clear();
+        Files.writeString(this.journalPath, runTag + "\t" + runKey + "\n", StandardCharsets.UTF_8); //new run
+    }
+
+    //journal file of a bar size and format, e.g. "download-journal-1min-csv.log" for "1 min" bars saved as csv
+    static String fileName(String barSize, String format) {
+        return filePrefix + "-" + barSize.replace(" ", "") + "-" + format.toLowerCase() + ".log";
+    }
+
+    //load the entries, false if the journal belongs to another run
+    private boolean read(String runKey) throws IOException {
+        String content = Files.readString(this.journalPath, StandardCharsets.UTF_8);
+        int end = content.lastIndexOf('\n') + 1; //complete lines only
+        String[] lines = content.substring(0, end).split("\n");
+        if (lines.length == 0 || !lines[0].equals(runTag + "\t" + runKey)) {
+            return false;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].split("\t");
+            if (fields.length == 3 && fields[0].equals(savedTag)) {
+                this.savedFiles.put(fields[1], fields[2]);
+            } else if (fields.length == 2 && fields[0].equals(skippedTag)) {
+                this.skippedTickers.add(fields[1]);
+            }
+        }
+        if (end < content.length()) { //drop the torn line so later entries start on a line of their own
+            try (FileChannel channel = FileChannel.open(this.journalPath, StandardOpenOption.WRITE)) {
+                channel.truncate(content.substring(0, end).getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+        return true;
+    }
+
+    //true if the ticker was saved, with its file still present, or found to have no data
+    synchronized boolean isDone(String ticker) {
+        String symbol = ticker.trim().toUpperCase();
+        if (this.skippedTickers.contains(symbol)) {
+            return true;
+        }
+        String file = this.savedFiles.get(symbol);
+        return file != null && Files.exists(this.dirPath.resolve(file));
+    }
+
+    synchronized void recordSaved(String ticker, Path filePath) throws IOException {
+        this.savedFiles.put(ticker, filePath.getFileName().toString());
+        this.append(savedTag + "\t" + ticker + "\t" + filePath.getFileName() + "\n");
+    }
+
+    synchronized void recordSkipped(String ticker) throws IOException {
+        this.skippedTickers.add(ticker);
+        this.append(skippedTag + "\t" + ticker + "\n");
+    }
+
+    //one line per ticker, so opened, forced and closed each time
+    private void append(String line) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+            channel.force(false);
+        }
+    }
+
+}
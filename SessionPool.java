@@ -0,0 +1,113 @@
+package historicalData;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+several TWS/Gateway connections downloading one ticker list together, each session a downloader of its own (clientId, socket, EReader and signal) on its own thread
+tickers are handed out from one shared queue a few at a time as a session has room for them, so a fast session takes more and a stalled one fewer;
+a session hit by a data farm outage, or failing, puts its tickers not yet handed to its writer back at the front of the queue for the others to take
+sessions on the same host and port share a pacing governor, as IB paces per TWS instance; cache and journal are shared by all
+the metrics of the sessions are combined into one run summary
+*/
+final class SessionPool {
+
+    //a TWS or IB Gateway connection
+    record Endpoint(String host, int port, int clientId) {
+    }
+
+    //tickers not yet taken by a session, and the progress count shared by the sessions
+    static final class Work {
+        private final Deque<String> tickers;
+        private final AtomicInteger total;
+        private final AtomicInteger done = new AtomicInteger();
+
+        Work(Collection<String> tickers, boolean isShared) {
+            this.tickers = isShared ? new ConcurrentLinkedDeque<>(tickers) : new ArrayDeque<>(tickers);
+            this.total = new AtomicInteger(tickers.size());
+        }
+
+        String take() { //null when none left
+            return this.tickers.pollFirst();
+        }
+
+        void giveBack(String ticker) { //taken first by the next session with room
+            this.tickers.addFirst(ticker);
+        }
+
+        void skipped() { //up to date, not counted
+            this.total.decrementAndGet();
+        }
+
+        String progress() { //"(done/total)" of the ticker just finished
+            return "(" + this.done.incrementAndGet() + "/" + this.total.get() + ")";
+        }
+    }
+
+    private final HistoricalDataDownloader template; //request and settings copied into every session
+    private final List<Endpoint> endpoints;
+    private DownloadMetrics metrics = new DownloadMetrics(); //combined once the sessions are done
+
+    SessionPool(HistoricalDataDownloader template, List<Endpoint> endpoints) {
+        this.template = template;
+        this.endpoints = endpoints;
+    }
+
+    /*
+    run all sessions until the tickers are done or every session has stopped, then combine their metrics
+    @throws IOException if any session failed, after the others finished; tickers it left are retried by the next run from the journal
+    */
+    void start(List<String> tickers) throws IOException {
+
+        Work work = new Work(tickers, true);
+        Map<String, RequestGovernor> governors = new HashMap<>(); //host:port -> governor
+        List<HistoricalDataDownloader> sessions = new ArrayList<>();
+        for (int i = 0; i < this.endpoints.size(); i++) {
+            Endpoint endpoint = this.endpoints.get(i);
+            RequestGovernor governor = governors.computeIfAbsent(endpoint.host() + ":" + endpoint.port(), key -> this.template.newGovernor());
+            sessions.add(this.template.forSession(endpoint, "session" + (i + 1), work, governor));
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(sessions.size(), runnable -> new Thread(runnable, "tws-session"));
+        List<Future<?>> results = new ArrayList<>();
+        for (HistoricalDataDownloader session : sessions) {
+            results.add(threads.submit(() -> {
+                session.runSession();
+                return null;
+            }));
+        }
+        threads.shutdown();
+
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (ExecutionException err) {
+                failures.add("session " + (i + 1) + " (" + this.endpoints.get(i).host() + ":" + this.endpoints.get(i).port() + "): " + err.getCause().getMessage());
+            } catch (InterruptedException err) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for sessions.");
+            }
+        }
+
+        List<DownloadMetrics> metrics = new ArrayList<>();
+        for (HistoricalDataDownloader session : sessions) {
+            metrics.add(session.getMetrics());
+        }
+        for (RequestGovernor governor : governors.values()) {
+            System.out.println(governor);
+        }
+        this.metrics = DownloadMetrics.combine(metrics);
+        if (!failures.isEmpty()) {
+            throw new IOException("Sessions failed: " + String.join("; ", failures));
+        }
+
+    }
+
+    DownloadMetrics getMetrics() {
+        return this.metrics;
+    }
+
+}
@@ -0,0 +1,220 @@
+package historicalData;
+
+import java.util.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+
+/*
+splits a long intraday request window into sub-windows sized to what IB returns in one request, stepping endDateTime backwards
+seconds bars are split within each trading day along IB's documented max durations, coarser intraday bars are split into groups of whole trading days
+interday requests are not split, IB returns years of daily bars in one request
+@see https://ibkrcampus.com/ibkr-api-page/twsapi-doc/#hist-step-size
+*/
+class WindowPlanner {
+
+    private static final DateTimeFormatter dateTimeWithTimezoneFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss VV"); //IBAPI endDateTime format
+    private static final ZoneId timezone = ZoneId.of("America/New_York");
+    private static final LocalTime marketOpen = LocalTime.of(9, 30);
+    private static final LocalTime marketClose = LocalTime.of(16, 0);
+    private static final int rthSeconds = 23400; //6.5 hours of regular trading hours
+    private static final int targetBarsPerRequest = 1000; //IB soft limit is a few hundreds to low thousands bars per request
+    private static final Map<Integer, Integer> maxSecondsPerSecondsBar = Map.of(1, 1800, 5, 3600, 10, 14400, 15, 14400, 30, 28800); //seconds bar size -> longest duration in S IB accepts
+
+    //a sub-window of the request, in IBAPI endDateTime and duration formats
+    record Window(String endDateTime, String duration) {
+    }
+
+    /*
+    @param String endDateTime: yyyyMMdd HH:mm:ss timezone, as sent to IB
+    @param String period: "<digit> DurationString" where DurationString is S = seconds, D = day, W = week, M = month, Y = year
+    @param String barSize: "<digit> SizeString" as sent to IB
+    @return sub-windows, newest first, covering the period; a single window equal to the input when no split needed
+    */
+    static List<Window> plan(String endDateTime, String period, String barSize) throws IllegalArgumentException {
+
+        int barSeconds = barSeconds(barSize);
+        if (barSeconds >= 86400) { //interday, one request
+            return List.of(new Window(endDateTime, period));
+        }
+
+        ZonedDateTime end = ZonedDateTime.parse(endDateTime, dateTimeWithTimezoneFormat);
+        List<LocalDate> days = tradingDays(end, period); //newest first
+        List<Window> windows = new ArrayList<>();
+
+        if (barSeconds < 60) { //seconds bars, split within each day
+            int chunkSeconds = maxSecondsPerSecondsBar.getOrDefault(barSeconds, 1800);
+            if (chunkSeconds >= rthSeconds) { //a whole day fits
+                chunkSeconds = rthSeconds;
+            }
+            if (period.trim().toUpperCase().endsWith("S")) { //period in seconds, step back from the end itself
+                int remaining = Integer.parseInt(period.trim().split("\\s+")[0]);
+                for (ZonedDateTime chunkEnd = end; remaining > 0; chunkEnd = chunkEnd.minusSeconds(chunkSeconds)) {
+                    windows.add(new Window(chunkEnd.format(dateTimeWithTimezoneFormat), Math.min(chunkSeconds, remaining) + " S"));
+                    remaining -= chunkSeconds;
+                }
+                return windows;
+            }
+            for (LocalDate day : days) {
+                LocalDateTime open = day.atTime(marketOpen);
+                for (LocalDateTime chunkEnd = day.atTime(marketClose); chunkEnd.isAfter(open); chunkEnd = chunkEnd.minusSeconds(chunkSeconds)) {
+                    windows.add(new Window(chunkEnd.atZone(timezone).format(dateTimeWithTimezoneFormat), chunkSeconds + " S"));
+                }
+            }
+        } else { //minute and hour bars, split into groups of whole days
+            int barsPerDay = (rthSeconds + barSeconds - 1) / barSeconds;
+            int daysPerChunk = Math.max(1, targetBarsPerRequest / barsPerDay);
+            for (int i = 0; i < days.size(); i += daysPerChunk) {
+                int chunkDays = Math.min(daysPerChunk, days.size() - i);
+                windows.add(new Window(days.get(i).atTime(marketClose).atZone(timezone).format(dateTimeWithTimezoneFormat), chunkDays + " D"));
+            }
+        }
+
+        if (windows.size() <= 1) { //nothing gained by splitting, keep the request as given
+            return List.of(new Window(endDateTime, period));
+        }
+        return windows;
+
+    }
+
+    /*
+    period from a given date up to the end of the request, for topping up a file whose data ends on that date
+    the date itself is fetched again, its bars may be partial if it was downloaded during the session
+    @param String endDateTime: yyyyMMdd HH:mm:ss timezone, as sent to IB
+    @param int fromDate: yyyyMMdd, first date to fetch
+    @return "<n> D" counting weekdays (whole years beyond 365), null if the date is after the request end
+    */
+    static String tailPeriod(String endDateTime, int fromDate) {
+        LocalDate lastDay = lastTradingDay(ZonedDateTime.parse(endDateTime, dateTimeWithTimezoneFormat));
+        LocalDate firstDay = LocalDate.of(fromDate / 10000, fromDate / 100 % 100, fromDate % 100);
+        int days = 0;
+        for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+            if (!isWeekend(day)) {
+                days++;
+            }
+        }
+        if (days == 0) {
+            return null;
+        }
+        return days > 365 ? (days + 259) / 260 + " Y" : days + " D"; //IB takes at most 365 D, longer periods in years
+    }
+
+    /*
+    drop the windows ending before the first bar IB has, and shorten the window the first bar falls in to start on it, so no request covers only time without data
+    @param List<Window> windows: newest first, as planned
+    @param ZonedDateTime head: earliest bar available, from reqHeadTimestamp
+    @return windows still covering data, newest first; empty if the first bar is after the request end
+    */
+    static List<Window> clip(List<Window> windows, ZonedDateTime head) {
+        List<Window> clipped = new ArrayList<>();
+        for (Window window : windows) {
+            ZonedDateTime end = ZonedDateTime.parse(window.endDateTime(), dateTimeWithTimezoneFormat);
+            if (!end.isAfter(head)) { //this and all older windows are before the first bar
+                break;
+            }
+            clipped.add(clipStart(window, end, head));
+        }
+        return clipped;
+    }
+
+    //the window, or a shorter one with the same end starting on the first bar if it begins before it
+    private static Window clipStart(Window window, ZonedDateTime end, ZonedDateTime head) {
+        String[] parts = window.duration().trim().split("\\s+");
+        int amount = Integer.parseInt(parts[0]);
+        if (parts[1].equalsIgnoreCase("S")) {
+            long seconds = Duration.between(head, end).getSeconds();
+            return seconds < amount ? new Window(window.endDateTime(), seconds + " S") : window;
+        }
+        String tail = tailPeriod(window.endDateTime(), Integer.parseInt(head.withZoneSameInstant(timezone).toLocalDate().format(DateTimeFormatter.BASIC_ISO_DATE)));
+        return tail != null && weekdays(tail) < weekdays(window.duration()) ? new Window(window.endDateTime(), tail) : window;
+    }
+
+    //approximate weekdays a period spans, to tell which of two periods is shorter
+    private static int weekdays(String period) {
+        String[] parts = period.trim().split("\\s+");
+        int amount = Integer.parseInt(parts[0]);
+        return switch (parts[1].toUpperCase()) {
+            case "W" -> amount * 5;
+            case "M" -> amount * 21;
+            case "Y" -> amount * 260;
+            default -> amount; //D
+        };
+    }
+
+    //session the window ends in, a weekend end date is shifted to the Friday before as IB does
+    private static LocalDate lastTradingDay(ZonedDateTime end) {
+        LocalDate lastDay = end.toLocalDate();
+        if (end.toLocalTime().isBefore(marketOpen)) { //window ends before today's session
+            lastDay = lastDay.minusDays(1);
+        }
+        while (isWeekend(lastDay)) {
+            lastDay = lastDay.minusDays(1);
+        }
+        return lastDay;
+    }
+
+    /*
+    weekdays covered by the period up to the end date, newest first; a weekend end date is shifted to the Friday before as IB does
+    holidays are not known here, a window spanning one returns the day before it too and the overlap is removed on merge
+    */
+    private static List<LocalDate> tradingDays(ZonedDateTime end, String period) throws IllegalArgumentException {
+
+        String[] parts = period.trim().split("\\s+");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid request period " + period);
+        }
+        int amount = Integer.parseInt(parts[0]);
+        LocalDate lastDay = lastTradingDay(end);
+
+        LocalDate firstDay; //exclusive bound
+        switch (parts[1].toUpperCase()) {
+            case "S" -> firstDay = end.minusSeconds(amount).toLocalDate().minusDays(1);
+            case "D" -> firstDay = null; //counted in trading days below
+            case "W" -> firstDay = lastDay.minusWeeks(amount);
+            case "M" -> firstDay = lastDay.minusMonths(amount);
+            case "Y" -> firstDay = lastDay.minusYears(amount);
+            default -> throw new IllegalArgumentException("Invalid request period " + period);
+        }
+
+        List<LocalDate> days = new ArrayList<>();
+        for (LocalDate day = lastDay; firstDay == null ? days.size() < amount : day.isAfter(firstDay); day = day.minusDays(1)) {
+            if (!isWeekend(day)) {
+                days.add(day);
+            }
+        }
+        return days;
+
+    }
+
+    private static boolean isWeekend(LocalDate day) {
+        return day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY;
+    }
+
+    /*
+    @param String barSize: "<digit> SizeString" such as 1 min, 5 secs, 1 hour, 1 day
+    @return bar length in seconds, 86400 or more for interday
+    */
+    static int barSeconds(String barSize) throws IllegalArgumentException {
+        String[] parts = barSize.trim().split("\\s+");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid bar size " + barSize);
+        }
+        int amount = Integer.parseInt(parts[0]);
+        String unit = parts[1].toLowerCase();
+        if (unit.startsWith("sec")) {
+            return amount;
+        } else if (unit.startsWith("min")) {
+            return amount * 60;
+        } else if (unit.startsWith("hour")) {
+            return amount * 3600;
+        } else if (unit.startsWith("day")) {
+            return amount * 86400;
+        } else if (unit.startsWith("week")) {
+            return amount * 7 * 86400;
+        } else if (unit.startsWith("month")) {
+            return amount * 31 * 86400;
+        } else {
+            throw new IllegalArgumentException("Invalid bar size " + barSize);
+        }
+    }
+
+}
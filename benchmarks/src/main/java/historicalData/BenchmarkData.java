@@ -0,0 +1,78 @@
+package historicalData;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/*
+synthetic 1 min intraday series shared by the benchmarks, deterministic so runs are comparable
+sessions 9:30-16:00 on weekdays from 2 Jan 2024; trades miss about 1 bar in 20 and bid/ask about 1 in 500, as with a less liquid stock
+*/
+final class BenchmarkData {
+
+    private static final DateTimeFormatter dateTimeFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss");
+
+    private BenchmarkData() {
+    }
+
+    //timestamps of consecutive session minutes, packed
+    static long[] times(int count) {
+        long[] times = new long[count];
+        LocalDateTime time = LocalDateTime.of(2024, 1, 2, 9, 30);
+        for (int i = 0; i < count; i++) {
+            times[i] = BarTime.parse(time.format(dateTimeFormat));
+            time = time.plusMinutes(1);
+            if (!time.toLocalTime().isBefore(LocalTime.of(16, 0))) {
+                do {
+                    time = time.toLocalDate().plusDays(1).atTime(9, 30);
+                } while (time.getDayOfWeek() == DayOfWeek.SATURDAY || time.getDayOfWeek() == DayOfWeek.SUNDAY);
+            }
+        }
+        return times;
+    }
+
+    //as received from IB
+    static String[] stamps(long[] times) {
+        char[] chars = new char[32];
+        String[] stamps = new String[times.length];
+        for (int i = 0; i < times.length; i++) {
+            stamps[i] = new String(chars, 0, BarTime.format(times[i], true, chars, 0)) + " America/New_York";
+        }
+        return stamps;
+    }
+
+    /*
+    one leg of a series, skipping about 1 in gapEvery bars
+    @param boolean isQuote: bid/ask leg with only the open price, as the downloader keeps it
+    */
+    static BarBuffer leg(long[] times, int gapEvery, long seed, boolean isQuote) {
+        Random random = new Random(seed);
+        BarBuffer buffer = new BarBuffer();
+        double price = 100;
+        for (long time : times) {
+            price = Math.max(1, Math.round((price + random.nextGaussian() * 0.05) * 100) / 100.0);
+            if (random.nextInt(gapEvery) == 0) {
+                continue;
+            }
+            if (isQuote) {
+                buffer.append(time, price, 0, 0, 0, 0);
+            } else {
+                buffer.append(time, price, price + 0.02, price - 0.02, price + 0.01, 100 + random.nextInt(5000));
+            }
+        }
+        return buffer;
+    }
+
+    static BarBuffer bids(long[] times) {
+        return leg(times, 500, 1, true);
+    }
+
+    static BarBuffer asks(long[] times) {
+        return leg(times, 500, 2, true);
+    }
+
+    static BarBuffer trades(long[] times) {
+        return leg(times, 20, 3, false);
+    }
+
+}
@@ -0,0 +1,78 @@
+package historicalData;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.*;
+import org.openjdk.jmh.annotations.*;
+
+/*
+csv file of a joined intraday series of 100k rows written to a temporary file, the save step of a ticker
+former: each row a String built from String.valueOf fields joined by Collectors.joining, written through a BufferedWriter; current: CsvBarWriter
+results are per row; run with -prof gc to compare gc.alloc.rate.norm
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CsvEncodingBenchmark {
+
+    private static final int rows = 100000;
+
+    private BarBuffer bids;
+    private BarBuffer asks;
+    private BarBuffer trades;
+    private String[] stamps; //per trades row, as the former path kept them
+    private Path filePath;
+
+    @Setup
+    public void setup() throws IOException {
+        long[] times = BenchmarkData.times(rows);
+        this.stamps = new String[rows];
+        char[] chars = new char[32];
+        for (int i = 0; i < rows; i++) {
+            this.stamps[i] = new String(chars, 0, BarTime.format(times[i], true, chars, 0));
+        }
+        this.bids = BenchmarkData.leg(times, Integer.MAX_VALUE, 1, true); //no gaps, so rows line up with the stamps
+        this.asks = BenchmarkData.leg(times, Integer.MAX_VALUE, 2, true);
+        this.trades = BenchmarkData.leg(times, Integer.MAX_VALUE, 3, false);
+        this.filePath = Files.createTempFile("encoding", ".csv");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.filePath);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(rows)
+    public void former() throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(this.filePath)) {
+            writer.write("datetime, bid, ask, open, high, low, close, volume");
+            writer.newLine();
+            for (int row = 0; row < rows; row++) {
+                String[] data = {this.stamps[row], String.valueOf(this.bids.open(row)), String.valueOf(this.asks.open(row)), String.valueOf(this.trades.open(row)), String.valueOf(this.trades.high(row)), String.valueOf(this.trades.low(row)), String.valueOf(this.trades.close(row)), String.valueOf(this.trades.volume(row))};
+                writer.write(Stream.of(data).collect(Collectors.joining(", ")));
+                writer.newLine();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(rows)
+    public void current() throws IOException {
+        try (CsvBarWriter writer = new CsvBarWriter(this.filePath)) {
+            writer.writeLine("datetime, bid, ask, open, high, low, close, volume");
+            for (int row = 0; row < rows; row++) {
+                writer.timestamp(this.trades.time(row), true);
+                writer.quote(this.bids, row);
+                writer.quote(this.asks, row);
+                writer.trades(this.trades, row);
+                writer.endRow();
+            }
+        }
+    }
+
+}
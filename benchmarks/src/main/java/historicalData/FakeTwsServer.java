@@ -0,0 +1,359 @@
+package historicalData;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+local stand-in for TWS/IB Gateway, speaking enough of the socket API to drive HistoricalDataDownloader without a live connection
+wire protocol (API v100+): client sends "API\0" then a length-prefixed "v<min>..<max>" version range, server answers with its version and time;
+every message after is a 4-byte big-endian length followed by null-terminated text fields, the first field the message id
+handled: startApi (71) answered with nextValidId (9), managedAccounts (15) and farm notices 2104/2106/2158; reqHistoricalData (20) answered
+with a historical data message (17) holding all bars of the request, which the client decoder follows with historicalDataEnd; cancelHistoricalData (25)
+the server version is capped below the ones that move the end of historical data into a message of its own (196) and add error times (194)
+bars are synthetic: a deterministic random walk per symbol over the regular session of the requested window
+configurable: response latency, a pacing limit answered with error 162 pacing violation, symbols answered with 162 no data, a data farm outage (2103 then 2104)
+*/
+public class FakeTwsServer implements Closeable {
+
+    //message ids
+    private static final int inHistoricalData = 20;
+    private static final int inCancelHistoricalData = 25;
+    private static final int inStartApi = 71;
+    private static final int outError = 4;
+    private static final int outNextValidId = 9;
+    private static final int outManagedAccounts = 15;
+    private static final int outHistoricalData = 17;
+    //server versions
+    private static final int maxServerVersion = 176;
+    private static final int advancedOrderRejectVersion = 166; //error messages carry an extra json field from here on
+    private static final DateTimeFormatter dateTimeWithTimezoneFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss VV");
+    private static final DateTimeFormatter dateTimeFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss");
+    private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final ZoneId timezone = ZoneId.of("America/New_York");
+    private static final LocalTime marketOpen = LocalTime.of(9, 30);
+    private static final LocalTime marketClose = LocalTime.of(16, 0);
+
+    private final int port;
+    private ServerSocket serverSocket;
+    private final ScheduledExecutorService responder = Executors.newScheduledThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "fake-tws-responder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //behaviour
+    private volatile long latencyMillis = 0; //delay before each response
+    private volatile long latencyPerThousandBarsMillis = 0; //added per 1000 bars, as larger responses take longer
+    private volatile int pacingLimit = 0; //max requests within the pacing window, 0 for no limit
+    private volatile long pacingWindowMillis = 600000;
+    private final Set<String> noDataSymbols = ConcurrentHashMap.newKeySet();
+    private volatile int outageAfterRequests = 0; //send 2103 after this many requests, 0 for never
+    private volatile long outageMillis = 0; //then 2104 after this long
+    //state and metrics
+    private final Deque<Long> requestTimes = new ArrayDeque<>(); //within the pacing window
+    private final AtomicLong requestsReceived = new AtomicLong();
+    private final AtomicLong barsSent = new AtomicLong();
+    private final AtomicLong pacingViolations = new AtomicLong();
+
+    public FakeTwsServer(int port) {
+        this.port = port;
+    }
+
+    public void setLatency(long latencyMillis, long latencyPerThousandBarsMillis) {
+        this.latencyMillis = latencyMillis;
+        this.latencyPerThousandBarsMillis = latencyPerThousandBarsMillis;
+    }
+
+    /*
+    reject requests beyond a number within a sliding window with 162 pacing violation, like HMDS does for small bars
+    @param int requests: 0 for no limit
+    */
+    public void setPacingLimit(int requests, long windowMillis) {
+        this.pacingLimit = requests;
+        this.pacingWindowMillis = windowMillis;
+    }
+
+    //symbols whose requests are answered with 162 no data
+    public void addNoDataSymbol(String symbol) {
+        this.noDataSymbols.add(symbol.toUpperCase());
+    }
+
+    //after the given number of requests, report the data farm broken (2103) and back (2104) after outageMillis
+    public void setFarmOutage(int afterRequests, long outageMillis) {
+        this.outageAfterRequests = afterRequests;
+        this.outageMillis = outageMillis;
+    }
+
+    public void start() throws IOException {
+        this.serverSocket = new ServerSocket(this.port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!this.serverSocket.isClosed()) {
+                try {
+                    Socket socket = this.serverSocket.accept();
+                    Thread session = new Thread(() -> this.serve(socket), "fake-tws-session");
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException err) {
+                    ; //closed
+                }
+            }
+        }, "fake-tws-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.responder.shutdownNow();
+        if (this.serverSocket != null) {
+            this.serverSocket.close();
+        }
+    }
+
+    public long getRequestsReceived() {
+        return this.requestsReceived.get();
+    }
+
+    public long getBarsSent() {
+        return this.barsSent.get();
+    }
+
+    public long getPacingViolations() {
+        return this.pacingViolations.get();
+    }
+
+    //one client connection: handshake, then a message loop until the client disconnects
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Session session = new Session(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+            byte[] prefix = new byte[4];
+            in.readFully(prefix);
+            if (!new String(prefix, StandardCharsets.US_ASCII).equals("API\0")) {
+                return;
+            }
+            byte[] handshake = new byte[in.readInt()];
+            in.readFully(handshake);
+            String versions = new String(handshake, StandardCharsets.US_ASCII).replace("\0", ""); //"v100..176" plus optional connect options, null-terminated or not depending on the client
+            String range = versions.substring(1).split(" ")[0];
+            int clientMax = Integer.parseInt(range.contains("..") ? range.substring(range.indexOf("..") + 2) : range);
+            session.serverVersion = Math.min(clientMax, maxServerVersion);
+            session.send(String.valueOf(session.serverVersion), LocalDateTime.now().format(dateTimeFormat) + " EST");
+
+            while (true) {
+                List<String> fields = readFields(in);
+                switch (Integer.parseInt(fields.get(0))) {
+                    case inStartApi -> {
+                        session.send(String.valueOf(outNextValidId), "1", "1");
+                        session.send(String.valueOf(outManagedAccounts), "1", "DU0000000");
+                        session.error(-1, 2104, "Market data farm connection is OK:usfarm");
+                        session.error(-1, 2106, "HMDS data farm connection is OK:ushmds");
+                        session.error(-1, 2158, "Sec-def data farm connection is OK:secdefnj");
+                    }
+                    case inHistoricalData -> this.onHistoricalData(session, fields);
+                    case inCancelHistoricalData -> session.cancelled.add(Integer.parseInt(fields.get(2)));
+                    default -> { } //not needed by the downloader
+                }
+            }
+        } catch (EOFException | SocketException err) {
+            ; //client disconnected
+        } catch (IOException | RuntimeException err) {
+            System.out.println("Fake TWS session ended: " + err);
+        }
+    }
+
+    /*
+    reqHistoricalData fields for server versions 124 and up (no message version):
+    id, reqId, conId, symbol, secType, lastTradeDate, strike, right, multiplier, exchange, primaryExch, currency, localSymbol, tradingClass, includeExpired,
+    endDateTime, barSize, duration, useRTH, whatToShow, formatDate, keepUpToDate, chartOptions
+    */
+    private void onHistoricalData(Session session, List<String> fields) {
+        int reqId = Integer.parseInt(fields.get(1));
+        String symbol = fields.get(3).toUpperCase();
+        String endDateTime = fields.get(15);
+        String barSize = fields.get(16);
+        String duration = fields.get(17);
+        String whatToShow = fields.get(19);
+        long now = System.currentTimeMillis();
+        long count = this.requestsReceived.incrementAndGet();
+
+        if (this.outageAfterRequests > 0 && count == this.outageAfterRequests) {
+            session.error(-1, 2103, "Market data farm connection is broken:usfarm");
+            this.responder.schedule(() -> session.error(-1, 2104, "Market data farm connection is OK:usfarm"), this.outageMillis, TimeUnit.MILLISECONDS);
+        }
+        if (this.isPacingViolation(now)) {
+            this.pacingViolations.incrementAndGet();
+            this.responder.schedule(() -> session.error(reqId, 162, "Historical Market Data Service error message:API historical data query cancelled: Pacing violation"), this.latencyMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (this.noDataSymbols.contains(symbol)) {
+            this.responder.schedule(() -> session.error(reqId, 162, "Historical Market Data Service error message:HMDS query returned no data: " + symbol + "@SMART " + whatToShow), this.latencyMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        List<String> bars = bars(symbol, whatToShow, endDateTime, duration, barSize);
+        long delay = this.latencyMillis + this.latencyPerThousandBarsMillis * (bars.size() / 8) / 1000;
+        this.responder.schedule(() -> {
+            if (session.cancelled.remove(reqId)) {
+                return;
+            }
+            List<String> message = new ArrayList<>(bars.size() + 5);
+            message.add(String.valueOf(outHistoricalData));
+            message.add(String.valueOf(reqId));
+            message.add(""); //start and end dates, only read by the client to pass on to historicalDataEnd
+            message.add("");
+            message.add(String.valueOf(bars.size() / 8));
+            message.addAll(bars);
+            session.send(message.toArray(new String[0]));
+            this.barsSent.addAndGet(bars.size() / 8);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized boolean isPacingViolation(long now) {
+        if (this.pacingLimit <= 0) {
+            return false;
+        }
+        while (!this.requestTimes.isEmpty() && this.requestTimes.peekFirst() <= now - this.pacingWindowMillis) {
+            this.requestTimes.removeFirst();
+        }
+        if (this.requestTimes.size() >= this.pacingLimit) {
+            return true;
+        }
+        this.requestTimes.addLast(now);
+        return false;
+    }
+
+    /*
+    synthetic bars of the request window as message fields, 8 per bar: date, open, high, low, close, volume, WAP, barCount
+    intraday bars cover the regular session of each weekday in the window, interday bars one per weekday
+    */
+    static List<String> bars(String symbol, String whatToShow, String endDateTime, String duration, String barSize) {
+        int barSeconds = WindowPlanner.barSeconds(barSize);
+        ZonedDateTime end = endDateTime.isEmpty() ? ZonedDateTime.now(timezone) : ZonedDateTime.parse(endDateTime, dateTimeWithTimezoneFormat);
+        ZonedDateTime start = windowStart(end, duration);
+        Random random = new Random(symbol.hashCode() * 31L + whatToShow.hashCode());
+        double price = 50 + random.nextInt(400);
+        double spread = "BID".equals(whatToShow) ? -0.01 : "ASK".equals(whatToShow) ? 0.01 : 0;
+        List<String> fields = new ArrayList<>();
+
+        for (LocalDate day = start.toLocalDate(); !day.isAfter(end.toLocalDate()); day = day.plusDays(1)) {
+            if (day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY) {
+                continue;
+            }
+            if (barSeconds >= 86400) {
+                price = addBar(fields, day.format(dateFormat), price, spread, random);
+                continue;
+            }
+            for (LocalDateTime time = day.atTime(marketOpen); time.toLocalTime().isBefore(marketClose); time = time.plusSeconds(barSeconds)) {
+                ZonedDateTime zoned = time.atZone(timezone);
+                if (zoned.isBefore(start) || !zoned.isBefore(end)) {
+                    continue;
+                }
+                price = addBar(fields, time.format(dateTimeFormat) + " America/New_York", price, spread, random);
+            }
+        }
+        return fields;
+    }
+
+    private static double addBar(List<String> fields, String date, double price, double spread, Random random) {
+        double open = price;
+        double close = Math.max(1, Math.round((open + random.nextGaussian() * 0.05) * 100) / 100.0);
+        double high = Math.max(open, close) + 0.01 * random.nextInt(5);
+        double low = Math.min(open, close) - 0.01 * random.nextInt(5);
+        long volume = 100 + random.nextInt(5000);
+        fields.add(date);
+        fields.add(String.valueOf(open + spread));
+        fields.add(String.valueOf(high + spread));
+        fields.add(String.valueOf(low + spread));
+        fields.add(String.valueOf(close + spread));
+        fields.add(String.valueOf(volume));
+        fields.add(String.valueOf((open + close) / 2));
+        fields.add(String.valueOf(1 + random.nextInt(50)));
+        return close;
+    }
+
+    //start of a "<n> S/D/W/M/Y" window ending at end; D counts weekdays as IB does for intraday bars
+    private static ZonedDateTime windowStart(ZonedDateTime end, String duration) {
+        String[] parts = duration.trim().split("\\s+");
+        int amount = Integer.parseInt(parts[0]);
+        switch (parts[1].toUpperCase()) {
+            case "S":
+                return end.minusSeconds(amount);
+            case "W":
+                return end.minusWeeks(amount);
+            case "M":
+                return end.minusMonths(amount);
+            case "Y":
+                return end.minusYears(amount);
+            default:
+                LocalDate day = end.toLocalTime().isAfter(marketOpen) ? end.toLocalDate() : end.toLocalDate().minusDays(1);
+                for (int counted = 0; ; day = day.minusDays(1)) {
+                    if (day.getDayOfWeek() != DayOfWeek.SATURDAY && day.getDayOfWeek() != DayOfWeek.SUNDAY && ++counted == amount) {
+                        return day.atStartOfDay(timezone);
+                    }
+                }
+        }
+    }
+
+    //one length-prefixed message as its null-terminated fields
+    private static List<String> readFields(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        List<String> fields = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == 0) {
+                fields.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return fields;
+    }
+
+    //writes of one connection, from the session thread and the responder threads
+    private static class Session {
+
+        private final OutputStream out;
+        private final Set<Integer> cancelled = ConcurrentHashMap.newKeySet();
+        private volatile int serverVersion;
+
+        private Session(OutputStream out) {
+            this.out = out;
+        }
+
+        private synchronized void send(String... fields) {
+            try {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                for (String field : fields) {
+                    body.write(field.getBytes(StandardCharsets.UTF_8));
+                    body.write(0);
+                }
+                int length = body.size();
+                this.out.write(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+                body.writeTo(this.out);
+                this.out.flush();
+            } catch (IOException err) {
+                ; //client gone
+            }
+        }
+
+        //error message: id, version 2, reqId, code, text, and the advanced reject json from server version 166
+        private void error(int reqId, int code, String text) {
+            if (this.serverVersion >= advancedOrderRejectVersion) {
+                this.send(String.valueOf(outError), "2", String.valueOf(reqId), String.valueOf(code), text, "");
+            } else {
+                this.send(String.valueOf(outError), "2", String.valueOf(reqId), String.valueOf(code), text);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,68 @@
+package historicalData;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/*
+work done in historicalData() per bar received, over a response of 2048 bars: timestamp parsed and the bar stored
+former: timezone removed by a DateTimeFormatter round trip, then a record of boxed fields added to a LinkedList; current: BarTime.parse into a reused BarBuffer
+results are per bar; run with -prof gc to compare gc.alloc.rate.norm
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestionBenchmark {
+
+    private static final DateTimeFormatter dateTimeWithTimezoneFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss VV");
+    private static final DateTimeFormatter dateTimeWithoutTimezoneFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss");
+    private static final int count = 2048;
+
+    //bar as previously stored
+    private record Trades(String datetime, Double open, Double high, Double low, Double close, Long volume) {
+    }
+
+    private String[] stamps;
+    private double[] prices = new double[count];
+    private long[] volumes = new long[count];
+    private BarBuffer buffer = new BarBuffer();
+
+    @Setup
+    public void setup() {
+        this.stamps = BenchmarkData.stamps(BenchmarkData.times(count));
+        Random random = new Random(1);
+        for (int i = 0; i < count; i++) {
+            this.prices[i] = 100 + random.nextInt(10000) / 100.0;
+            this.volumes[i] = random.nextInt(5000);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(count)
+    public LinkedList<Trades> former() {
+        LinkedList<Trades> trades = new LinkedList<>();
+        for (int i = 0; i < count; i++) {
+            String datetime = LocalDateTime.parse(this.stamps[i], dateTimeWithTimezoneFormat).format(dateTimeWithoutTimezoneFormat);
+            double price = this.prices[i];
+            trades.add(new Trades(datetime, price, price + 0.02, price - 0.02, price + 0.01, this.volumes[i]));
+        }
+        return trades;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(count)
+    public BarBuffer current() {
+        this.buffer.clear(); //reused across requests
+        for (int i = 0; i < count; i++) {
+            double price = this.prices[i];
+            this.buffer.append(BarTime.parse(this.stamps[i]), price, price + 0.02, price - 0.02, price + 0.01, this.volumes[i]);
+        }
+        return this.buffer;
+    }
+
+}
@@ -0,0 +1,44 @@
+package historicalData;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+bid/ask/trades merge join of a ticker's intraday series, the step between the last response and the file write
+series of 1k, 100k and 1M session minutes (about 2.5 days, 1 year and 10 years of 1 min bars), with the gaps of BenchmarkData
+run with -prof gc: the join itself should allocate nothing per row
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class JoinBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int bars;
+
+    private BarBuffer bids;
+    private BarBuffer asks;
+    private BarBuffer trades;
+
+    @Setup
+    public void setup() {
+        long[] times = BenchmarkData.times(this.bars);
+        this.bids = BenchmarkData.bids(times);
+        this.asks = BenchmarkData.asks(times);
+        this.trades = BenchmarkData.trades(times);
+    }
+
+    @Benchmark
+    public void join(Blackhole blackhole) throws IOException {
+        HistoricalDataDownloader.joinBidAskTrades(this.bids, this.asks, this.trades, (timestamp, bidRow, askRow, tradeRow) -> {
+            blackhole.consume(timestamp);
+            blackhole.consume(bidRow + askRow + tradeRow);
+        });
+    }
+
+}
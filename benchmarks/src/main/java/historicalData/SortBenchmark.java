@@ -0,0 +1,174 @@
+package historicalData;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.Temporal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/*
+putting a ticker's chunk responses (1 week windows, overlapping by a bar) into one chronological series
+former: rows in arrival order (newest window first) sorted by the former compareTo (copied as it was), parsing both datetimes on every comparison and comparing them field by field; current: BarBuffer.appendDistinct of the windows oldest first, one linear pass
+1M rows is left out, the former sort takes minutes per operation there
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SortBenchmark {
+
+    private static final DateTimeFormatter dateTimeWithoutTimezoneFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss");
+    private static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final int rowsPerChunk = 1950; //a week of 1 min bars
+
+    //bar as previously stored, ordered by its datetime
+    private record Trades(String datetime, Double close) implements Comparable<Trades> {
+
+        @Override   //obj A is considered larger than B if its datetime is after that of B (ie recent data is larger)
+        public int compareTo(Trades that) { 
+            Temporal thisTimestamp;
+            Temporal thatTimestamp;
+            
+            if ( this.datetime.equals(that.datetime()) ) {
+                return 0;
+            }
+
+            if ( this.datetime.length() == 8 ) { //interday data yyyymmdd
+                thisTimestamp = LocalDate.parse(this.datetime, dateFormat);
+                thatTimestamp = LocalDate.parse(that.datetime(), dateFormat);
+            } else { //intraday data
+                thisTimestamp = LocalDateTime.parse(this.datetime, dateTimeWithoutTimezoneFormat);
+                thatTimestamp = LocalDateTime.parse(that.datetime(), dateTimeWithoutTimezoneFormat);
+            }
+
+            return dateTimeCompare(thisTimestamp, thatTimestamp);
+        }
+
+    }
+
+    //helper method for CompareTo in Comparable<>
+    static private int dateTimeCompare(Temporal dateTime1, Temporal dateTime2) {
+        int thisYear;
+        int thatYear;
+        int thisMonth;
+        int thatMonth;
+        int thisDay;
+        int thatDay;
+        int thisHour = 0;
+        int thatHour = 0;
+        int thisMinute = 0;
+        int thatMinute = 0;
+        int thisSecond = 0;
+        int thatSecond = 0;
+
+        if (dateTime1 instanceof LocalDateTime) { //intraday data
+            LocalDateTime thisDateTime = (LocalDateTime)dateTime1; 
+            LocalDateTime thatDateTime = (LocalDateTime)dateTime2; 
+            thisYear = thisDateTime.getYear();
+            thatYear = thatDateTime.getYear();
+            thisMonth = thisDateTime.getMonthValue();
+            thatMonth = thatDateTime.getMonthValue();
+            thisDay = thisDateTime.getDayOfMonth();
+            thatDay = thatDateTime.getDayOfMonth();
+            thisHour = thisDateTime.getHour();
+            thatHour =  thatDateTime.getHour();
+            thisMinute = thisDateTime.getMinute();
+            thatMinute = thatDateTime.getMinute();
+            thisSecond = thisDateTime.getSecond();
+            thatSecond = thatDateTime.getSecond();
+        } else { //interday data
+            LocalDate thisDateTime = (LocalDate)dateTime1; 
+            LocalDate thatDateTime = (LocalDate)dateTime2; 
+            thisYear = thisDateTime.getYear();
+            thatYear = thatDateTime.getYear();
+            thisMonth = thisDateTime.getMonthValue();
+            thatMonth = thatDateTime.getMonthValue();
+            thisDay = thisDateTime.getDayOfMonth();
+            thatDay = thatDateTime.getDayOfMonth();
+        }
+
+        if (thisYear == thatYear && thisMonth == thatMonth && thisDay == thatDay) { //same dates, intraday comparison
+            if (thisHour > thatHour) {
+                return 1;
+            } else if (thisHour < thatHour) {
+                return -1;
+            } else { //same hour
+                if (thisMinute > thatMinute) { 
+                    return 1;
+                } else if (thisMinute < thatMinute) {
+                    return -1;
+                } else { //same hour and minute
+                    if (thisSecond > thatSecond) {
+                        return 1;
+                    } else {
+                        return -1;
+                    }
+                }
+            }
+
+        } else { //different dates
+            if (thisYear > thatYear) {
+                return 1;
+            } else if (thisYear < thatYear) {
+                return -1;
+            } else { //same year
+                if (thisMonth > thatMonth) {
+                    return 1;
+                } else if (thisMonth < thatMonth) {
+                    return -1;
+                } else { //same year and month
+                    if (thisDay > thatDay) {
+                        return 1;
+                    } else {
+                        return -1;
+                    }
+                }
+            }
+        } 
+    }
+
+    @Param({"1000", "100000"})
+    private int bars;
+
+    private List<Trades> arrived = new ArrayList<>(); //former rows, newest chunk first
+    private List<BarBuffer> chunks = new ArrayList<>(); //current buffers, oldest chunk first
+    private BarBuffer merged = new BarBuffer();
+
+    @Setup
+    public void setup() {
+        long[] times = BenchmarkData.times(this.bars);
+        BarBuffer trades = BenchmarkData.leg(times, Integer.MAX_VALUE, 3, false);
+        char[] chars = new char[32];
+        for (int start = 0; start < this.bars; start += rowsPerChunk) {
+            BarBuffer chunk = new BarBuffer();
+            for (int row = Math.max(0, start - 1); row < Math.min(this.bars, start + rowsPerChunk); row++) { //first row repeats the previous chunk's last
+                chunk.appendRow(trades, row);
+            }
+            this.chunks.add(chunk);
+        }
+        for (int i = this.chunks.size() - 1; i >= 0; i--) {
+            BarBuffer chunk = this.chunks.get(i);
+            for (int row = 0; row < chunk.size(); row++) {
+                this.arrived.add(new Trades(new String(chars, 0, BarTime.format(chunk.time(row), true, chars, 0)), chunk.close(row)));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Trades> former() {
+        List<Trades> rows = new ArrayList<>(this.arrived);
+        Collections.sort(rows);
+        return rows;
+    }
+
+    @Benchmark
+    public BarBuffer current() {
+        this.merged.clear();
+        this.merged.appendDistinct(this.chunks);
+        return this.merged;
+    }
+
+}
@@ -0,0 +1,92 @@
+package historicalData;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+/*
+end-to-end throughput of HistoricalDataDownloader against FakeTwsServer, no TWS or network needed
+every scenario runs a full batch (connection, request scheduling, pacing, merge and save) into a temporary directory and reports
+tickers per minute, bars per second, request latency percentiles (send to end, so including time queued at the server) and the allocation rate of the message thread, per second and per bar received
+run: java -cp target/benchmarks.jar:/path/to/TwsApi.jar historicalData.ThroughputBenchmark [port] [tickers]
+*/
+public class ThroughputBenchmark {
+
+    private static final int defaultPort = 17496;
+    private static final int defaultTickers = 50;
+
+    //a batch run against the fake server
+    private record Scenario(String name, String period, String barSize, long latencyMillis, int pacingLimit, boolean isStreaming) {
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : defaultPort;
+        int tickerCount = args.length > 1 ? Integer.parseInt(args[1]) : defaultTickers;
+        List<String> tickers = IntStream.range(0, tickerCount).mapToObj(i -> "T" + i).collect(Collectors.toList());
+
+        List<Scenario> scenarios = List.of(
+            new Scenario("interday 5Y", "5 Y", "1 day", 20, 0, false),
+            new Scenario("intraday 1W 1min", "1 W", "1 min", 50, 0, false),
+            new Scenario("intraday 1W 1min streaming", "1 W", "1 min", 50, 0, true),
+            new Scenario("intraday 1D 5sec paced", "1 D", "5 secs", 10, 60, false)
+        );
+
+        System.out.println(String.format("%-30s %10s %12s %12s %10s %10s %12s %12s", "scenario", "tickers", "tickers/min", "bars/s", "p50 ms", "p99 ms", "alloc MB/s", "alloc B/bar"));
+        for (Scenario scenario : scenarios) {
+            run(scenario, port, tickers);
+        }
+
+    }
+
+    private static void run(Scenario scenario, int port, List<String> tickers) throws IOException {
+
+        Path dirPath = Files.createTempDirectory("throughput");
+        try (FakeTwsServer server = new FakeTwsServer(port)) {
+            server.setLatency(scenario.latencyMillis(), 5);
+            server.setPacingLimit(scenario.pacingLimit(), 600000);
+            server.start();
+
+            HistoricalDataDownloader downloader = HistoricalDataDownloader.getDownloader(tickers, 2024, 6, 28, scenario.period(), scenario.barSize(), dirPath.toString(), true);
+            downloader.setPort(port);
+            downloader.setStreaming(scenario.isStreaming());
+
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().getId();
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId); //the message loop runs on the calling thread
+            long startedAt = System.nanoTime();
+            downloader.start();
+            double seconds = (System.nanoTime() - startedAt) / 1e9;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+            long[] latencies = downloader.getMetrics().getRequestLatencies();
+            Arrays.sort(latencies);
+            long bars = downloader.getMetrics().getBarsReceived();
+            System.out.println(String.format("%-30s %10d %12.1f %12.0f %10.1f %10.1f %12.1f %12.0f", scenario.name(), tickers.size(), tickers.size() / seconds * 60, bars / seconds, percentile(latencies, 0.5) / 1e6, percentile(latencies, 0.99) / 1e6, allocated / 1048576.0 / seconds, bars > 0 ? (double) allocated / bars : Double.NaN));
+            if (server.getPacingViolations() > 0) {
+                System.out.println("  " + server.getPacingViolations() + " pacing violations of " + server.getRequestsReceived() + " requests");
+            }
+        } finally {
+            deleteRecursively(dirPath);
+        }
+
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    private static void deleteRecursively(Path dirPath) throws IOException {
+        try (Stream<Path> paths = Files.walk(dirPath)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package historicalData;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/*
+timestamp handling per bar: the former DateTimeFormatter round trip (parse with timezone, format without) against BarTime
+run with -prof gc to compare gc.alloc.rate.norm
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimestampBenchmark {
+
+    private static final DateTimeFormatter dateTimeWithTimezoneFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss VV");
+    private static final DateTimeFormatter dateTimeWithoutTimezoneFormat = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss");
+    private static final int count = 1024; //distinct timestamps cycled through
+
+    private String[] stamps = new String[count]; //as received from IB
+    private long[] packed = new long[count];
+    private char[] output = new char[32];
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        LocalDateTime time = LocalDateTime.of(2024, 1, 2, 9, 30);
+        for (int i = 0; i < count; i++, time = time.plusMinutes(1)) {
+            this.stamps[i] = time.format(dateTimeWithoutTimezoneFormat) + " America/New_York";
+            this.packed[i] = BarTime.parse(this.stamps[i]);
+        }
+    }
+
+    private int nextIndex() {
+        this.next = (this.next + 1) & (count - 1);
+        return this.next;
+    }
+
+    @Benchmark //previous removeTimezone()
+    public String formatterRemoveTimezone() {
+        return LocalDateTime.parse(this.stamps[this.nextIndex()], dateTimeWithTimezoneFormat).format(dateTimeWithoutTimezoneFormat);
+    }
+
+    @Benchmark
+    public long barTimeParse() {
+        return BarTime.parse(this.stamps[this.nextIndex()]);
+    }
+
+    @Benchmark
+    public String formatterFormat() {
+        long timestamp = this.packed[this.nextIndex()];
+        return LocalDateTime.of(BarTime.date(timestamp) / 10000, BarTime.date(timestamp) / 100 % 100, BarTime.date(timestamp) % 100, 0, 0).plusSeconds(BarTime.secondOfDay(timestamp)).format(dateTimeWithoutTimezoneFormat);
+    }
+
+    @Benchmark
+    public int barTimeFormat() {
+        return BarTime.format(this.packed[this.nextIndex()], true, this.output, 0);
+    }
+
+}